@@ -0,0 +1,31 @@
+package twitter_filtering_stefano;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link Assessment#filterByConfigThresholds(TokenCounter)}, selecting the top words
+ * among the frequencies of all the filtered tweets, with the thresholds of assessment.conf.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssessmentBenchmark {
+
+	@Benchmark
+	public Assessment filterByConfigThresholds(BenchmarkData data) {
+		return new Assessment(data.config, BenchmarkData.SILENT).filterByConfigThresholds(data.counts.getWords());
+	}
+}
@@ -0,0 +1,78 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Fixture data shared by the benchmarks: the configuration and the tweets of the file specified by the 'file'
+ * option of platform.conf (test.txt by default), at each stage of the pipeline.
+ *
+ * The configuration files and the tweet file are read from the working directory, so the benchmarks have to be
+ * run from the project directory. The data is loaded once per trial, and never changed by the benchmarks.
+ *
+ * @author stefano
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkData {
+
+	/**
+	 * Discard all the messages, so that the benchmarks measure the pipeline only
+	 */
+	public static final Log SILENT = new Log() {
+		@Override
+		public void write(String text) {
+		}
+
+		@Override
+		public void write(String text, Color color) {
+		}
+	};
+
+	Config config;
+	TokenDictionary dictionary;
+	List<String> records = new ArrayList<>(); // the tweets as lines of a text file (id, text and timestamp separated by tabs)
+	List<Tweet> tweets = new ArrayList<>(); // as captured
+	List<FilteredTweet> filtered = new ArrayList<>(); // not discarded by the filters
+	WindowClassifier classifier;
+	Map<Long, TweetColumns> windows; // filtered tweets grouped by time window
+	WindowCounts counts; // word and n-gram frequencies of all the filtered tweets
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		config = new Config(SILENT);
+		dictionary = new TokenDictionary();
+
+		try(FileChannel file = FileChannel.open(Paths.get(config.getFile()), StandardOpenOption.READ)) {
+			TweetFileReader reader = new TweetFileReader(file);
+			for(Tweet tweet = reader.next(); tweet != null; tweet = reader.next()) {
+				tweets.add(tweet);
+				records.add(tweet.getId() + "\t\"" + tweet.getText() + "\"\t\"" + tweet.getTimestampAsString() + "\"");
+			}
+		}
+		if(tweets.isEmpty()) throw new IOException("no tweets in " + config.getFile());
+
+		Filtering filtering = new Filtering(config, dictionary, SILENT);
+		for(Tweet tweet : tweets) {
+			FilteredTweet filteredTweet = filtering.apply(tweet);
+			if(!filteredTweet.isDiscarded()) filtered.add(filteredTweet);
+		}
+
+		classifier = new WindowClassifier(tweets.get(0).getTimestamp(), config.getRefreshTime());
+		windows = filtered.stream().collect(TweetColumns.groupingByWindow(classifier));
+
+		counts = new WindowCounts(dictionary, config.getNGramsCardinality());
+		for(FilteredTweet tweet : filtered) counts.add(tweet);
+	}
+}
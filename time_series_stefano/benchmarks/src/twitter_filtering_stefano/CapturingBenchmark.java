@@ -0,0 +1,54 @@
+package twitter_filtering_stefano;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the capture from file: parsing the tweets from their text records,
+ * and reading all the tweets of the file as done by {@link OfflineIterator}.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapturingBenchmark {
+
+	/**
+	 * Parse all the tweets by {@link Tweet#Tweet(String)}
+	 */
+	@Benchmark
+	public void parseTweets(BenchmarkData data, Blackhole blackhole) {
+		for(String record : data.records) {
+			blackhole.consume(new Tweet(record));
+		}
+	}
+
+	/**
+	 * Read all the tweets of the file by the same {@link TweetFileReader} used by {@link OfflineIterator}
+	 */
+	@Benchmark
+	public void readFile(BenchmarkData data, Blackhole blackhole) throws IOException {
+		try(FileChannel file = FileChannel.open(Paths.get(data.config.getFile()), StandardOpenOption.READ)) {
+			TweetFileReader reader = new TweetFileReader(file);
+			for(Tweet tweet = reader.next(); tweet != null; tweet = reader.next()) {
+				blackhole.consume(tweet);
+			}
+		}
+	}
+}
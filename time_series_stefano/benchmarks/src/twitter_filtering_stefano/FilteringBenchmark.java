@@ -0,0 +1,59 @@
+package twitter_filtering_stefano;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of {@link Filtering#apply(Tweet)} with the word lists of filtering.conf,
+ * for both the filtering engines.
+ *
+ * The benchmark has its own configuration, to select the engine, and its own dictionary, filled by the
+ * filtered tweets, so the shared {@link BenchmarkData} is not changed.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilteringBenchmark {
+
+	@Param({"automaton", "regex"})
+	private String engine;
+
+	private Filtering filtering;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Config config = new Config(BenchmarkData.SILENT);
+		config.setEngine(engine);
+		filtering = new Filtering(config, new TokenDictionary(), BenchmarkData.SILENT);
+	}
+
+	/**
+	 * Filter all the tweets
+	 */
+	@Benchmark
+	public void apply(BenchmarkData data, Blackhole blackhole) {
+		for(Tweet tweet : data.tweets) {
+			blackhole.consume(filtering.apply(tweet));
+		}
+	}
+}
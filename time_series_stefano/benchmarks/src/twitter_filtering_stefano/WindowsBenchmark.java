@@ -0,0 +1,68 @@
+package twitter_filtering_stefano;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the time windows built by {@link CloudGenerator#generate(Config, Log, Log)}: assigning the
+ * filtered tweets to their window, grouping them by window and counting the word and n-gram frequencies
+ * of the windows, both in batch mode and in streaming mode.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowsBenchmark {
+
+	/**
+	 * Compute the window index of all the filtered tweets
+	 */
+	@Benchmark
+	public void classify(BenchmarkData data, Blackhole blackhole) {
+		for(FilteredTweet tweet : data.filtered) {
+			blackhole.consume(data.classifier.windowIndex(tweet));
+		}
+	}
+
+	/**
+	 * Group the filtered tweets by window, as in batch mode
+	 */
+	@Benchmark
+	public Map<Long, TweetColumns> group(BenchmarkData data) {
+		return data.filtered.parallelStream().collect(TweetColumns.groupingByWindow(data.classifier));
+	}
+
+	/**
+	 * Count the words and n-grams of all the windows, as in batch mode
+	 */
+	@Benchmark
+	public void count(BenchmarkData data, Blackhole blackhole) {
+		for(TweetColumns window : data.windows.values()) {
+			blackhole.consume(window.count(data.dictionary, data.config.getNGramsCardinality()));
+		}
+	}
+
+	/**
+	 * Count the words and n-grams of the filtered tweets one by one, as done for each window
+	 * by {@link WindowAggregator} in streaming mode
+	 */
+	@Benchmark
+	public WindowCounts aggregate(BenchmarkData data) {
+		WindowCounts counts = new WindowCounts(data.dictionary, data.config.getNGramsCardinality());
+		for(FilteredTweet tweet : data.filtered) counts.add(tweet);
+		return counts;
+	}
+}
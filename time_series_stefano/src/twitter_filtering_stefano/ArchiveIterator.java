@@ -0,0 +1,383 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.Spliterators.AbstractSpliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Implement a {@link twitter_filtering_stefano.StoppableSpliterator} that iterate on the
+ * tweets stored in a binary archive written by {@link ArchiveWriter}.
+ *
+ * The iterator can be split by ranges of blocks, so that the archive can be replayed by a parallel stream.
+ * As for {@link OfflineIterator}, all the iterators obtained by splitting share the same file and database
+ * writer, which are released when the last of them is exhausted.
+ *
+ * The replay can be limited to a time range: if the archive has a {@link TweetIndex} (saved when the archive is
+ * closed), only the blocks holding tweets in the time range are read. The tweets outside the time range are skipped.
+ *
+ * @author stefano
+ *
+ */
+public class ArchiveIterator extends StoppableSpliterator<Tweet> {
+
+	private FileChannel file;
+	private boolean compressed;
+	private long[] blockOffsets; // position of each block in the file
+	private int[] blockTweets; // number of tweets in each block
+	private Instant firstWindowStart = null; // time istant of the first tweet in the archive, or start of the replayed time range
+	private Instant from; // start of the replayed time range, null if not limited
+	private Instant to; // end (exclusive) of the replayed time range, null if not limited
+	private Log console;
+	private DbWriterPool dbWriter; // parallel database accessing threads
+
+	private ArchiveIterator root; // the iterator this one has been split from, holds the stop flag
+	private AtomicInteger active; // number of iterators, obtained by splitting the root one, not exhausted yet
+	private boolean exhausted = false;
+
+	private static final Metrics.Counter CAPTURED = Metrics.counter("capture.tweets");
+	private static final LatencyHistogram READ_LATENCY = Metrics.histogram("capture.read");
+
+	// range of blocks of this iterator, and the block being decoded
+	private int nextBlock;
+	private int endBlock;
+	private ByteBuffer block = null;
+	private int remaining = 0; // tweets not decoded yet in the current block
+	private long previousId;
+	private long previousTimestamp;
+	private Inflater inflater = null;
+	private ByteBuffer stored = null; // compressed block read from file
+
+	public ArchiveIterator(Config config, Log console, Log dbConsole) throws IOException, ClassNotFoundException, SQLException {
+		super(0, AbstractSpliterator.ORDERED | AbstractSpliterator.IMMUTABLE | AbstractSpliterator.NONNULL);
+
+		this.console = console;
+		root = this;
+		active = new AtomicInteger(1);
+
+		String filename = config.getFile();
+		Path path = Paths.get(filename);
+		file = FileChannel.open(path, StandardOpenOption.READ);
+
+		ByteBuffer header = ByteBuffer.allocate(ArchiveWriter.HEADER_SIZE);
+		readFully(header, 0);
+		if(header.getInt(0) != ArchiveWriter.MAGIC) {
+			file.close();
+			throw new IOException(filename + " is not a tweet archive");
+		}
+		compressed = (header.getInt(4) & ArchiveWriter.FLAG_COMPRESSED) != 0;
+
+		scanBlocks();
+		if(blockOffsets.length == 0) {
+			file.close();
+			throw new IOException("no tweets in " + filename);
+		}
+
+		from = config.getReplayFrom();
+		to = config.getReplayTo();
+		TweetIndex index = TweetIndex.load(path);
+		if(index != null) {
+			// read only the blocks holding tweets in the time range
+			firstWindowStart = from != null ? from : index.getFirstTimestamp();
+			nextBlock = firstBlockFrom(index.startOffset(from));
+			endBlock = firstBlockFrom(index.endOffset(to));
+		} else {
+			// no index, e.g. because the capture was interrupted: read all the blocks
+			nextBlock = 0;
+			endBlock = blockOffsets.length;
+			if(from != null) {
+				firstWindowStart = from;
+			} else {
+				// the timestamp of the first tweet, then "rewind" the iterator
+				firstWindowStart = readTweet().getTimestamp();
+				nextBlock = 0;
+				remaining = 0;
+			}
+		}
+
+		// store tweets in the 'dbTable' table of the database specified in the configuration object.
+		// The tweets are enqueued by all the threads reading a range of the archive
+		dbWriter = new DbWriterPool(config,"INSERT INTO `" + config.getDbTable() +"` VALUES (?,?,?)", false, dbConsole);
+		dbWriter.start();
+	}
+
+	/**
+	 * Build an iterator on the blocks in the range [{@code start}, {@code end}) of the same archive of {@code parent}
+	 */
+	private ArchiveIterator(ArchiveIterator parent, int start, int end) {
+		super(0, parent.characteristics());
+
+		console = parent.console;
+		file = parent.file;
+		compressed = parent.compressed;
+		blockOffsets = parent.blockOffsets;
+		blockTweets = parent.blockTweets;
+		firstWindowStart = parent.firstWindowStart;
+		from = parent.from;
+		to = parent.to;
+		dbWriter = parent.dbWriter;
+		root = parent.root;
+		active = parent.active;
+		nextBlock = start;
+		endBlock = end;
+	}
+
+	/**
+	 * Find the position of the blocks, reading only their headers
+	 */
+	private void scanBlocks() throws IOException {
+		ArrayList<Long> offsets = new ArrayList<>();
+		ArrayList<Integer> tweets = new ArrayList<>();
+		ByteBuffer header = ByteBuffer.allocate(ArchiveWriter.BLOCK_HEADER_SIZE);
+		long position = ArchiveWriter.HEADER_SIZE;
+		long size = file.size();
+
+		while(position + ArchiveWriter.BLOCK_HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			long next = position + ArchiveWriter.BLOCK_HEADER_SIZE + header.getInt(8);
+			if(next > size) break; // block partially written, e.g. because the capture was interrupted
+
+			offsets.add(position);
+			tweets.add(header.getInt(0));
+			position = next;
+		}
+
+		blockOffsets = offsets.stream().mapToLong(Long::longValue).toArray();
+		blockTweets = tweets.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @param offset an offset in the archive
+	 * @return the index of the first block at or after {@code offset}
+	 */
+	private int firstBlockFrom(long offset) {
+		int i = 0;
+		while(i < blockOffsets.length && blockOffsets[i] < offset) i++;
+		return i;
+	}
+
+	/**
+	 * Split the blocks of this iterator approximately in half. The returned iterator covers
+	 * the first half, so that the encounter order of the tweets is preserved.
+	 *
+	 * @return an iterator on the first half of the blocks, or null if there are not enough blocks
+	 * or a block is being decoded
+	 */
+	@Override
+	public Spliterator<Tweet> trySplit() {
+		if(root.stop || exhausted || remaining > 0) return null;
+		if(endBlock - nextBlock < 2) return null;
+
+		int middle = nextBlock + (endBlock - nextBlock) / 2;
+		ArchiveIterator prefix = new ArchiveIterator(this, nextBlock, middle);
+		active.incrementAndGet();
+		nextBlock = middle;
+		return prefix;
+	}
+
+	/**
+	 * @return the number of tweets remaining in the blocks of this iterator
+	 */
+	@Override
+	public long estimateSize() {
+		if(exhausted) return 0;
+		long size = remaining;
+		for(int i = nextBlock; i < endBlock; i++) {
+			size += blockTweets[i];
+		}
+		return size;
+	}
+
+	/**
+	 * Propagate the stop action to every iterator obtained by splitting this one
+	 */
+	@Override
+	public void stop() {
+		root.stop = true;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Tweet> consumer) {
+		if(exhausted) {
+			return false;
+		}
+
+		if(root.stop) {
+			release();
+			return false;
+		}
+
+		try {
+			long start = System.nanoTime();
+			Tweet tweet = readTweetInRange();
+			READ_LATENCY.recordSince(start);
+			if(tweet == null) {
+				release();
+				return false;
+			}
+
+			CAPTURED.increment();
+
+			// store the tweet in DB 'filtering' table. Tweets are immutable, so the
+			// (asynchronous) query will insert the original data even if the tweet is filtered meanwhile
+			dbWriter.enqueue(tweet);
+
+			console.count("analyzing tweets", () -> "id: " + tweet.getId() + " timestamp: " + tweet.getTimestampAsString());
+
+			consumer.accept(tweet);
+			return true;
+		} catch(Exception e) {
+			e.printStackTrace();
+			console.write(e.getMessage(), Color.red);
+			release();
+			return false;
+		}
+	}
+
+	/**
+	 * Decode the next tweet, reading the next block when the current one is over
+	 *
+	 * @return the decoded tweet, or null if there are no more tweets in the blocks of this iterator
+	 */
+	private Tweet readTweet() throws IOException {
+		while(remaining == 0) {
+			if(nextBlock >= endBlock) return null;
+			readBlock(nextBlock++);
+		}
+
+		long id = previousId + ArchiveWriter.getVarLong(block);
+		long timestamp = previousTimestamp + ArchiveWriter.getVarLong(block);
+		int length = (int) ArchiveWriter.getVarLong(block);
+		String text = new String(block.array(), block.position(), length, StandardCharsets.UTF_8);
+		block.position(block.position() + length);
+
+		previousId = id;
+		previousTimestamp = timestamp;
+		remaining--;
+		return new Tweet(id, text, Instant.ofEpochMilli(timestamp));
+	}
+
+	/**
+	 * Read (and decompress) the block {@code index}, making it the current block
+	 */
+	private void readBlock(int index) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ArchiveWriter.BLOCK_HEADER_SIZE);
+		readFully(header, blockOffsets[index]);
+		int length = header.getInt(4);
+		int storedLength = header.getInt(8);
+		long position = blockOffsets[index] + ArchiveWriter.BLOCK_HEADER_SIZE;
+
+		if(block == null || block.capacity() < length) {
+			block = ByteBuffer.allocate(length);
+		}
+		block.clear().limit(length);
+
+		if(compressed) {
+			if(stored == null || stored.capacity() < storedLength) {
+				stored = ByteBuffer.allocate(storedLength);
+			}
+			stored.clear().limit(storedLength);
+			readFully(stored, position);
+
+			if(inflater == null) inflater = new Inflater();
+			inflater.reset();
+			inflater.setInput(stored.array(), 0, storedLength);
+			try {
+				int n = 0;
+				while(n < length && !inflater.finished()) {
+					int inflated = inflater.inflate(block.array(), n, length - n);
+					if(inflated == 0 && inflater.needsInput()) throw new IOException("truncated block in tweet archive");
+					n += inflated;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("corrupted block in tweet archive", e);
+			}
+		} else {
+			readFully(block, position);
+		}
+
+		block.position(0);
+		remaining = blockTweets[index];
+		previousId = 0;
+		previousTimestamp = 0;
+	}
+
+	/**
+	 * Read the next tweet, skipping the tweets outside the replayed time range
+	 *
+	 * @return the read tweet, or null if there are no more tweets in the blocks of this iterator
+	 */
+	private Tweet readTweetInRange() throws IOException {
+		Tweet tweet = readTweet();
+		while(tweet != null && !inRange(tweet)) tweet = readTweet();
+		return tweet;
+	}
+
+	/**
+	 * @return true if the tweet timestamp is in the replayed time range
+	 */
+	private boolean inRange(Tweet tweet) {
+		Instant timestamp = tweet.getTimestamp();
+		return (from == null || !timestamp.isBefore(from)) && (to == null || timestamp.isBefore(to));
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(file.read(buffer, position + buffer.position()) < 0) throw new IOException("unexpected end of tweet archive");
+		}
+	}
+
+	/**
+	 * Flag this iterator as exhausted. When all the iterators sharing the archive are exhausted,
+	 * the database writer is signaled and the file is released.
+	 */
+	private void release() {
+		exhausted = true;
+		if(inflater != null) inflater.end();
+		inflater = null;
+		if(active.decrementAndGet() > 0) return;
+
+		dbWriter.finish();
+		try {
+			file.close();
+		} catch (IOException e) {
+			console.write(e.getMessage(), Color.red);
+		}
+	}
+
+	/**
+	 * Wait until the database writer has stored all the tweets read, once the last iterator sharing
+	 * the file is exhausted
+	 */
+	@Override
+	public void awaitTermination() {
+		dbWriter.awaitTermination();
+	}
+
+	/**
+	 * The timestamp of the first tweet stored in the archive, or the start of the replayed time range
+	 * if specified by the 'replayFrom' option.
+	 *
+	 * Note that the archive is assumed to store in the first position the oldest tweet.
+	 *
+	 * @return the start of the first time window
+	 */
+	public Instant getFirstWindowStart() {
+		return firstWindowStart;
+	}
+
+}
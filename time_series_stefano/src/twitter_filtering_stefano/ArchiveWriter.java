@@ -0,0 +1,191 @@
+package twitter_filtering_stefano;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Write tweets to a binary archive, which can be replayed by {@link ArchiveIterator} much faster
+ * than the text files, since no text has to be parsed.
+ *
+ * The archive starts with a header (magic number and flags) followed by a sequence of blocks. Each block
+ * starts with the number of tweets, the length of the encoded tweets and the length of the stored data,
+ * which is compressed if the archive was created with compression. Inside a block each tweet is stored as:
+ * <ul>
+ * <li>the difference from the id of the previous tweet, as a variable length integer</li>
+ * <li>the difference from the timestamp (epoch milliseconds) of the previous tweet, as a variable length integer</li>
+ * <li>the length of the text followed by the text, UTF-8 encoded</li>
+ * </ul>
+ * The differences are computed from 0 for the first tweet of each block, so the blocks can be decoded independently.
+ *
+ * When the archive is closed, its {@link TweetIndex} is saved alongside, with an entry for each block.
+ *
+ * @author stefano
+ *
+ */
+public class ArchiveWriter {
+
+	/**
+	 * extension of the archive files, used to recognize them
+	 */
+	public static final String EXTENSION = ".twa";
+
+	static final int MAGIC = 0x54574131; // "TWA1"
+	static final int HEADER_SIZE = 8; // magic and flags
+	static final int BLOCK_HEADER_SIZE = 12; // tweets, encoded length and stored length
+	static final int FLAG_COMPRESSED = 1;
+
+	/**
+	 * size (bytes) of the encoded tweets after which a block is written
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private Path path;
+	private FileChannel out;
+	private long written = 0; // bytes written to the file
+	private TweetIndex.Builder index = new TweetIndex.Builder();
+	private Deflater deflater = null; // null if the archive is not compressed
+
+	// block being filled
+	private byte[] block = new byte[BLOCK_SIZE + 1024];
+	private int length = 0;
+	private int tweets = 0;
+	private long previousId = 0;
+	private long previousTimestamp = 0;
+
+	private byte[] compressed = new byte[0];
+
+	/**
+	 * Create the archive, overwriting any existing file
+	 *
+	 * @param path the archive file
+	 * @param compression true if the blocks have to be compressed
+	 * @throws IOException if the file can not be created
+	 */
+	public ArchiveWriter(Path path, boolean compression) throws IOException {
+		this.path = path;
+		out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		if(compression) deflater = new Deflater(Deflater.BEST_SPEED);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(compression ? FLAG_COMPRESSED : 0);
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Append a tweet to the archive. The tweet is written to the file when its block is full.
+	 *
+	 * @param tweet the tweet to append
+	 */
+	public void append(Tweet tweet) throws IOException {
+		byte[] text = tweet.getText().getBytes(StandardCharsets.UTF_8);
+		long timestamp = tweet.getTimestamp().toEpochMilli();
+
+		// 3 variable length integers of at most 10 bytes each
+		if(block.length < length + 30 + text.length) {
+			block = Arrays.copyOf(block, Math.max(block.length * 2, length + 30 + text.length));
+		}
+
+		putVarLong(tweet.getId() - previousId);
+		putVarLong(timestamp - previousTimestamp);
+		putVarLong(text.length);
+		System.arraycopy(text, 0, block, length, text.length);
+		length += text.length;
+
+		previousId = tweet.getId();
+		previousTimestamp = timestamp;
+		tweets++;
+		index.add(written, timestamp); // the block will be written at the current end of the file
+
+		if(length >= BLOCK_SIZE) writeBlock();
+	}
+
+	/**
+	 * Write the last block, close the archive and save its index
+	 */
+	public void close() throws IOException {
+		try {
+			writeBlock();
+		} finally {
+			out.close();
+			if(deflater != null) deflater.end();
+		}
+		index.build(path).save(path);
+	}
+
+	private void writeBlock() throws IOException {
+		if(tweets == 0) return;
+
+		byte[] data = block;
+		int stored = length;
+		if(deflater != null) {
+			if(compressed.length < length + 64) compressed = new byte[length + length / 8 + 64]; // room for incompressible data
+			deflater.reset();
+			deflater.setInput(block, 0, length);
+			deflater.finish();
+			stored = 0;
+			while(!deflater.finished()) {
+				if(stored == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				stored += deflater.deflate(compressed, stored, compressed.length - stored);
+			}
+			data = compressed;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		header.putInt(tweets);
+		header.putInt(length);
+		header.putInt(stored);
+		header.flip();
+		write(header);
+		write(ByteBuffer.wrap(data, 0, stored));
+
+		length = 0;
+		tweets = 0;
+		previousId = 0;
+		previousTimestamp = 0;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			written += out.write(buffer);
+		}
+	}
+
+	/**
+	 * Append a signed integer to the block: zigzag encoded, so that small negative values are short too,
+	 * then written 7 bits per byte, the highest bit set if more bytes follow
+	 */
+	private void putVarLong(long value) {
+		long v = (value << 1) ^ (value >> 63);
+		while((v & ~0x7FL) != 0) {
+			block[length++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		block[length++] = (byte) v;
+	}
+
+	/**
+	 * Read a signed integer written by {@link #putVarLong(long)}
+	 *
+	 * @param buffer the buffer, positioned at the integer
+	 * @return the integer
+	 */
+	static long getVarLong(ByteBuffer buffer) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -7,10 +7,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.Random;
-import java.util.Map.Entry;
 
 import wordcloud.CollisionMode;
 import wordcloud.WordCloud;
@@ -33,7 +33,7 @@ public class Assessment {
 	
 	private Config conf;
 	
-	private MessageConsole console;
+	private Log console;
 	
 	/**
 	 * will contain the top 'wordNumber' words having the highest frequency
@@ -45,35 +45,87 @@ public class Assessment {
 	 */
 	private String uniqueID;
 	
-	public Assessment(Config conf, MessageConsole console) {
+	// duration of each step
+	private static final LatencyHistogram FILTER_LATENCY = Metrics.histogram("assessment.filter");
+	private static final LatencyHistogram CLOUD_TEXT_LATENCY = Metrics.histogram("assessment.cloudText");
+	private static final LatencyHistogram NGRAMS_TEXT_LATENCY = Metrics.histogram("assessment.nGramsText");
+	private static final LatencyHistogram RENDER_LATENCY = Metrics.histogram("assessment.render");
+	private static final LatencyHistogram CLOUD_IMAGE_LATENCY = Metrics.histogram("assessment.cloudImage");
+	
+	public Assessment(Config conf, Log console) {
 		this.conf = conf;
 		this.console = console;
 	}
 	
 	/**
-	 * Filter the words in {@code frequencies} by the configured minimum frequency threshold and length.
+	 * Filter the words counted by {@code frequencies} by the configured minimum frequency threshold and length.
+	 * Only the selected words are decoded from the dictionary.
+	 * 
+	 * @param frequencies the frequency of each token
+	 * @return the assessment object itself. This allow to chain calls to other methods of this class
 	 */
-	@SuppressWarnings("unchecked")
-	public Assessment filterByConfigThresholds(Map<String, Long> frequencies) {
-		topWords = new ArrayList<WordFrequency>(conf.getWordNumber());
-		
-		Arrays.stream(frequencies.entrySet().toArray(new Map.Entry[0]))
-		.filter(entry -> ((Entry<String, Long>) entry).getValue() > conf.getFrequencyThreshold()) // keep words with frequency greater than the configured 'frequencyThreshold'
-		.filter(entry -> ((Entry<String, Long>) entry).getKey().length() > conf.getMinWordLength()) // keep words having length greater than the configured 'minWordLength'
-		.sorted((e1,  e2) -> (int) (((Entry<String, Long>) e2).getValue() - ((Entry<String, Long>) e1).getValue())) // sort in descending order of frequency
-		.limit(conf.getWordNumber()) // take only the first 'wordNumber' words
-		.forEach(entry -> topWords.add(new WordFrequency(((Entry<String, Long>)entry).getKey(), ((Entry<String, Long>) entry).getValue().intValue())));
+	public Assessment filterByConfigThresholds(TokenCounter frequencies) {
+		long start = System.nanoTime();
+		TokenDictionary dictionary = frequencies.getDictionary();
+		TopWordsSelector selector = new TopWordsSelector();
+		frequencies.forEach((token, frequency) -> selector.offer(dictionary.decode(token), frequency));
+		topWords = selector.getTopWords();
+		FILTER_LATENCY.recordSince(start);
 		
 		return this;
 	}
 	
 	/**
-	 * Generate the txt cloud file. This method should be called after {@link #filterByConfigThresholds(Map)}.
+	 * Select the top 'wordNumber' words having the highest frequency, among the ones having frequency greater
+	 * than the configured 'frequencyThreshold' and length greater than the configured 'minWordLength'.
+	 * 
+	 * The words are kept in a min-heap bounded to 'wordNumber' elements, so the selection doesn't need to
+	 * store or sort all the words. Words having the same frequency are selected in alphabetical order.
+	 */
+	private class TopWordsSelector {
+		private int wordNumber = conf.getWordNumber();
+		private int frequencyThreshold = conf.getFrequencyThreshold();
+		private int minWordLength = conf.getMinWordLength();
+		
+		// the root is the word having the lowest frequency among the selected ones
+		private PriorityQueue<WordFrequency> heap = new PriorityQueue<>(Math.max(wordNumber, 1), 
+				Comparator.comparingInt(WordFrequency::getFrequency).thenComparing(WordFrequency::getWord, Comparator.reverseOrder()));
+		
+		public void offer(String word, int frequency) {
+			if(frequency <= frequencyThreshold || word.length() <= minWordLength || wordNumber <= 0) return;
+			
+			if(heap.size() < wordNumber) {
+				heap.add(new WordFrequency(word, frequency));
+			} else {
+				WordFrequency lowest = heap.peek();
+				if(frequency > lowest.getFrequency() || (frequency == lowest.getFrequency() && word.compareTo(lowest.getWord()) < 0)) {
+					heap.poll();
+					heap.add(new WordFrequency(word, frequency));
+				}
+			}
+		}
+		
+		/**
+		 * @return the selected words, in descending order of frequency
+		 */
+		public ArrayList<WordFrequency> getTopWords() {
+			ArrayList<WordFrequency> ret = new ArrayList<>(heap.size());
+			while(!heap.isEmpty()) {
+				ret.add(heap.poll());
+			}
+			Collections.reverse(ret);
+			return ret;
+		}
+	}
+	
+	/**
+	 * Generate the txt cloud file. This method should be called after {@link #filterByConfigThresholds(TokenCounter)}.
 	 * 
 	 * @return the assessment object itself. This allow to chain calls to other methods of this class
-	 * @throws NullPointerException if this method is called before {@link #filterByConfigThresholds(Map)}
+	 * @throws NullPointerException if this method is called before {@link #filterByConfigThresholds(TokenCounter)}
 	 */
 	public Assessment generateCloudText() {
+		long start = System.nanoTime();
 		try {
 			Files.createDirectories(Paths.get("frequencies"));
 			
@@ -89,17 +141,53 @@ public class Assessment {
 		} catch (IOException e1) {
 			console.write(e1.getMessage(), Color.red);
 		}
+		CLOUD_TEXT_LATENCY.recordSince(start);
+		
+		return this;
+	}
+	
+	/**
+	 * Generate the n-grams txt file, listing the top 'nGramsNumber' n-grams having the highest frequency
+	 * for each length from 2 to 'nGramsCardinality'. Nothing is generated if 'nGramsCardinality' is less than 2.
+	 * 
+	 * @param frequencies the frequency of each n-gram
+	 * @return the assessment object itself. This allow to chain calls to other methods of this class
+	 */
+	public Assessment generateNGramsText(NGramCounter frequencies) {
+		if(frequencies.getCardinality() < 2) return this;
+		
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories(Paths.get("frequencies"));
+			
+			try(PrintWriter out = 
+					new PrintWriter(Files.newOutputStream(Paths.get("frequencies/ngram_frequency-" + uniqueID + ".txt"), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE), true))		{
+				for(int n = 2; n <= frequencies.getCardinality(); n++) {
+					out.println("# " + n + "-grams");
+					for(WordFrequency nGram : frequencies.top(n, conf.getNGramsNumber())) {
+						out.println(nGram.getWord() + " = " + nGram.getFrequency());
+					}
+				}
+				out.flush();
+			} catch (IOException e) {
+				console.write(e.getMessage(), Color.red);
+			}
+		} catch (IOException e1) {
+			console.write(e1.getMessage(), Color.red);
+		}
+		NGRAMS_TEXT_LATENCY.recordSince(start);
 		
 		return this;
 	}
 	
 	/**
-	 * Generate the png cloud file. This method should be called after {@link #filterByConfigThresholds(Map)}.
+	 * Generate the png cloud file. This method should be called after {@link #filterByConfigThresholds(TokenCounter)}.
 	 * 
 	 * @return the assessment object itself. This allow to chain calls to other methods of this class
-	 * @throws NullPointerException if this method is called before {@link #filterByConfigThresholds(Map)}
+	 * @throws NullPointerException if this method is called before {@link #filterByConfigThresholds(TokenCounter)}
 	 */
 	public Assessment generateCloudImage() {
+		long start = System.nanoTime();
 		WordCloud wordCloud = new WordCloud(conf.getCloudWidth(), conf.getCloudHeight(), CollisionMode.RECTANGLE);
 		wordCloud.setPadding(1);
 		wordCloud.setBackground(new RectangleBackground(conf.getCloudWidth(), conf.getCloudHeight()));
@@ -107,7 +195,9 @@ public class Assessment {
 		wordCloud.setFontScalar(new LinearFontScalar(15, 50));
 		wordCloud.setAngleGenerator(new AngleGenerator((int) conf.getAngleInclination()));
 		
+		long render = System.nanoTime();
 		wordCloud.build(topWords);
+		RENDER_LATENCY.recordSince(render);
 		
 		try {
 			Files.createDirectories(Paths.get("frequencies"));
@@ -115,6 +205,7 @@ public class Assessment {
 		} catch (IOException e) {
 			console.write(e.getMessage(), Color.red);
 		}
+		CLOUD_IMAGE_LATENCY.recordSince(start);
 		
 		return this;
 	}
@@ -0,0 +1,110 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execute the assessment tasks of the time windows on a fixed pool of worker threads.
+ * 
+ * At most 'assessmentThreads' tasks are executed at the same time and at most 'assessmentQueue' more tasks
+ * can wait for a free worker: when the queue is full {@link #submit(String, Runnable)} blocks, slowing down
+ * the producer of the time windows. The completion of the tasks is reported in the same order
+ * they were submitted, even if they are executed in parallel.
+ * 
+ * @author stefano
+ *
+ */
+public class AssessmentScheduler {
+
+	private ThreadPoolExecutor executor;
+	private Semaphore slots; // one for each task executing or waiting in the queue
+	private Log console;
+	
+	private long submitted = 0; // sequence number of the next submitted task
+	private long nextToReport = 0; // sequence number of the next task whose completion has to be reported
+	private TreeMap<Long, String> completed = new TreeMap<>(); // id of the completed tasks not reported yet, by sequence number
+	
+	/**
+	 * @param threads number of worker threads. If not positive, the number of available processors is used
+	 * @param queueSize maximum number of tasks waiting for a free worker
+	 * @param console where to report the completion of the tasks
+	 */
+	public AssessmentScheduler(int threads, int queueSize, Log console) {
+		this.console = console;
+		
+		if(threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		queueSize = Math.max(queueSize, 1);
+		
+		// the number of pending tasks is bounded by the semaphore. The executor queue is large enough to hold all of them,
+		// since a slot is released by a task just before its worker is ready to take the next one
+		AtomicInteger workers = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads + queueSize),
+				task -> new Thread(task, "assessment-" + workers.incrementAndGet()));
+		slots = new Semaphore(threads + queueSize);
+	}
+	
+	/**
+	 * Submit the assessment task of a time window. If all the workers are busy and the queue is full,
+	 * wait until a task completes.
+	 * 
+	 * @param id the id of the time window
+	 * @param task the assessment task
+	 */
+	public void submit(String id, Runnable task) {
+		slots.acquireUninterruptibly();
+		
+		long sequence;
+		synchronized(this) {
+			sequence = submitted++;
+		}
+		
+		executor.execute(() -> {
+			try {
+				task.run();
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+				console.write("error processing time window " + id + ": " + e.getMessage(), Color.red);
+			} finally {
+				slots.release();
+				completed(sequence, id);
+			}
+		});
+	}
+	
+	/**
+	 * Report the completion of the task having the given sequence number, along with any following task
+	 * already completed
+	 */
+	private synchronized void completed(long sequence, String id) {
+		completed.put(sequence, id);
+		while(!completed.isEmpty() && completed.firstKey() == nextToReport) {
+			console.write("done processing time window " + completed.remove(nextToReport));
+			nextToReport++;
+		}
+	}
+	
+	/**
+	 * Wait for all the submitted tasks to complete. No more tasks can be submitted after this call.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		executor.shutdown();
+		while(!executor.awaitTermination(1, TimeUnit.MINUTES));
+	}
+	
+	/**
+	 * Stop the workers without waiting for the submitted tasks: the tasks not started yet are discarded
+	 * and the running ones are interrupted. No more tasks can be submitted after this call.
+	 */
+	public void shutdownNow() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,310 @@
+package twitter_filtering_stefano;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link TweetQueue} storing the tweets in a ring buffer preallocated with a fixed capacity.
+ * When the buffer is full, added tweets are handled according to the {@link OverflowPolicy} of the queue.
+ *
+ * With the {@link OverflowPolicy#SPILL} policy, tweets not fitting in the buffer are appended to a temporary
+ * file and read back as soon as the buffer has some room, preserving their order. The file is deleted
+ * whenever all the spilled tweets have been read back. The spill files still existing when the application
+ * exits (e.g. a queue closed and not drained) are deleted by a single shutdown hook.
+ *
+ * This queue can be used by any number of producer and consumer threads.
+ *
+ * @author stefano
+ *
+ */
+public class BoundedTweetQueue implements TweetQueue {
+
+	private final Tweet[] ring;
+	private final OverflowPolicy policy;
+
+	private int head = 0; // index of the first tweet of the buffer
+	private int count = 0; // number of tweets in the buffer
+	private boolean closed = false;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private long dropped = 0;
+	private int highWaterMark = 0;
+
+	// spill files of all the queues not deleted yet, removed by the shutdown hook
+	private static final Set<Path> SPILL_FILES = ConcurrentHashMap.newKeySet();
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for(Path file : SPILL_FILES) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					// nothing else can be done
+				}
+			}
+		}, "spill-cleanup"));
+	}
+
+	// spill file, created only when needed
+	private Path spillFile = null;
+	private DataOutputStream spillOut = null;
+	private DataInputStream spillIn = null;
+	private int spilled = 0; // number of tweets written in the spill file and not read back yet
+
+	/**
+	 * @param capacity maximum number of tweets kept in memory
+	 * @param policy what to do with the tweets added when the queue is full
+	 */
+	public BoundedTweetQueue(int capacity, OverflowPolicy policy) {
+		ring = new Tweet[Math.max(capacity, 1)];
+		this.policy = policy;
+	}
+
+	@Override
+	public boolean put(Tweet tweet) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if(closed) return false;
+
+			// once some tweets have been spilled, the following ones are spilled too, to preserve their order
+			if(count == ring.length || spilled > 0) {
+				switch(policy) {
+				case BLOCK:
+					while(count == ring.length && !closed) {
+						notFull.await();
+					}
+					if(closed) return false;
+					break;
+				case DROP_OLDEST:
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					count--;
+					dropped++;
+					break;
+				case DROP_NEWEST:
+					dropped++;
+					return false;
+				case SPILL:
+					return spill(tweet);
+				}
+			}
+
+			ring[(head + count) % ring.length] = tweet;
+			count++;
+			highWaterMark = Math.max(highWaterMark, count + spilled);
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Tweet take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(count == 0 && !closed) {
+				notEmpty.await();
+			}
+			return count == 0 ? null : remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Tweet poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(count == 0 && !closed && nanos > 0) {
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return count == 0 ? null : remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Tweet> collection, int maxElements) {
+		lock.lock();
+		try {
+			int n = 0;
+			while(n < maxElements && count > 0) {
+				collection.add(remove());
+				n++;
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return count == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of tweets currently stored in the queue, including the spilled ones
+	 */
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return count + spilled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getHighWaterMark() {
+		lock.lock();
+		try {
+			return highWaterMark;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove the first tweet of the buffer, which must not be empty, and refill the buffer from the spill file.
+	 * Must be called holding the lock.
+	 */
+	private Tweet remove() {
+		Tweet tweet = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		count--;
+
+		if(spilled > 0) {
+			unspill();
+		}
+
+		notFull.signal();
+		return tweet;
+	}
+
+	/**
+	 * Append a tweet to the spill file. Must be called holding the lock.
+	 *
+	 * @return false if the tweet could not be written, and has been dropped
+	 */
+	private boolean spill(Tweet tweet) {
+		try {
+			if(spillOut == null) {
+				spillFile = Files.createTempFile("tweets", ".spill");
+				SPILL_FILES.add(spillFile);
+				spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile.toFile())));
+			}
+			spillOut.writeLong(tweet.getId());
+			spillOut.writeLong(tweet.getTimestamp().toEpochMilli());
+			spillOut.writeUTF(tweet.getText());
+			spilled++;
+			highWaterMark = Math.max(highWaterMark, count + spilled);
+			notEmpty.signal();
+			return true;
+		} catch (IOException e) {
+			dropped++;
+			return false;
+		}
+	}
+
+	/**
+	 * Move the spilled tweets back to the buffer, as long as it has some room. Must be called holding the lock.
+	 */
+	private void unspill() {
+		try {
+			if(spillIn == null) {
+				spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile.toFile())));
+			}
+			spillOut.flush();
+
+			while(count < ring.length && spilled > 0) {
+				long id = spillIn.readLong();
+				Instant timestamp = Instant.ofEpochMilli(spillIn.readLong());
+				String text = spillIn.readUTF();
+				ring[(head + count) % ring.length] = new Tweet(id, text, timestamp);
+				count++;
+				spilled--;
+			}
+		} catch (IOException e) {
+			// the remaining spilled tweets cannot be read anymore
+			dropped += spilled;
+			spilled = 0;
+		}
+
+		if(spilled == 0) {
+			deleteSpillFile();
+		}
+	}
+
+	private void deleteSpillFile() {
+		try {
+			if(spillIn != null) spillIn.close();
+			spillOut.close();
+			Files.deleteIfExists(spillFile);
+			SPILL_FILES.remove(spillFile);
+		} catch (IOException e) {
+			// the file will be deleted on exit
+		}
+		spillIn = null;
+		spillOut = null;
+		spillFile = null;
+	}
+}
@@ -16,19 +16,21 @@ import java.util.stream.StreamSupport;
 public class Capturing {
 
 	private Config config;
-	private MessageConsole console;
-	private MessageConsole dbLog;
+	private Log console;
+	private Log dbLog;
 	private StoppableSpliterator<Tweet> iterator = null; // the iterator providing the stream
 	private Instant firstWindowStart = null; // time instant of the first tweet
 	
-	public Capturing(Config config, MessageConsole console, MessageConsole dbLog) {
+	public Capturing(Config config, Log console, Log dbLog) {
 		this.config = config;
 		this.console = console;
 		this.dbLog = dbLog;
 	}
 	
 	/**
-	 * Set up the stream from the file specified by the file option in platform.conf
+	 * Set up the stream from the file specified by the file option in platform.conf.
+	 * The file is either a text file or, if it has the {@link ArchiveWriter#EXTENSION} extension, a binary archive.
+	 * The file is split in ranges read in parallel, so the returned stream is parallel.
 	 * 
 	 * @return the stream of tweets generated from file
 	 * @throws IOException if there was a problem accessing the file specified by the file option in platform.conf 
@@ -36,19 +38,27 @@ public class Capturing {
 	 * @throws ClassNotFoundException if the mysql connector was not found
 	 */
 	private Stream<Tweet> createOfflineStream() throws IOException, ClassNotFoundException, SQLException {
-		iterator = new OfflineIterator(config, console, dbLog);
-		firstWindowStart = ((OfflineIterator) iterator).getFirstWindowStart();
-		return StreamSupport.stream(iterator, false);
+		if(config.getFile().endsWith(ArchiveWriter.EXTENSION)) {
+			ArchiveIterator archiveIterator = new ArchiveIterator(config, console, dbLog);
+			firstWindowStart = archiveIterator.getFirstWindowStart();
+			iterator = archiveIterator;
+		} else {
+			OfflineIterator offlineIterator = new OfflineIterator(config, console, dbLog);
+			firstWindowStart = offlineIterator.getFirstWindowStart();
+			iterator = offlineIterator;
+		}
+		return StreamSupport.stream(iterator, true);
 	}
 	
 	/**
 	 * Set up the live stream from twitter
 	 * 
 	 * @return the stream of tweets generated live from twitter 
+	 * @throws IOException if there was a problem accessing the write-ahead log of the database writers
 	 * @throws SQLException if there was a problem conecting to the database
 	 * @throws ClassNotFoundException if the mysql connector was not found 
 	 */
-	private Stream<Tweet> createOnlineStream() throws ClassNotFoundException, SQLException {
+	private Stream<Tweet> createOnlineStream() throws IOException, ClassNotFoundException, SQLException {
 		firstWindowStart = Instant.now();
 		
 		iterator = new OnlineIterator(config, firstWindowStart, console, dbLog);
@@ -80,11 +90,22 @@ public class Capturing {
 	public void stop() {
 		if(iterator != null) iterator.stop();
 	}
+	
+	/**
+	 * Wait until all the captured tweets have been stored in the database. The database is written in background,
+	 * so this should be called only once the stream has been consumed and the assessment of the time windows scheduled.
+	 * 
+	 * @see twitter_filtering_stefano.StoppableSpliterator#awaitTermination()
+	 */
+	public void awaitTermination() {
+		if(iterator != null) iterator.awaitTermination();
+	}
 
 	/**
 	 * @return the instant of the first time window.
 	 * 
 	 * @see twitter_filtering_stefano.OfflineIterator#getFirstWindowStart()
+	 * @see twitter_filtering_stefano.ArchiveIterator#getFirstWindowStart()
 	 */
 	public Instant getFirstWindowStart() {
 		return firstWindowStart;
@@ -2,27 +2,64 @@ package twitter_filtering_stefano;
 
 
 import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * This is the main class, where the computation is started.
  * 
+ * By default the messages are reported in two console windows. With the {@code --headless} argument no window
+ * is created: the messages are written to the standard output, or to the file given by {@code --log <file>},
+ * and the process exit code tells whether any error was reported.
+ * 
  * @author stefano
  *
  */
 public class CloudGenerator {
+	
+	/**
+	 * maximum time (seconds) the process waits, when terminated, for the captured tweets to be processed
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 60;
+	
+	private volatile Capturing capturing = null; // the capturing in progress, if any
 
 	public static void main(String[] args) {
+		boolean headless = false;
+		String logFile = null;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--headless")) {
+				headless = true;
+			} else if(args[i].equals("--log") && i + 1 < args.length) {
+				logFile = args[++i];
+			} else {
+				System.err.println("usage: CloudGenerator [--headless [--log <file>]]");
+				System.exit(2);
+			}
+		}
+		
+		if(headless) {
+			System.exit(runHeadless(logFile));
+		}
+		
 		Instant start = Instant.now();
 		
 		MessageConsole filtering = new MessageConsole("Filtering");
@@ -37,6 +74,66 @@ public class CloudGenerator {
 		System.out.println("elapsed time: " + Duration.between(start, stop));
 	}
 	
+	/**
+	 * Run without any window, writing the messages as lines of text. When the process is terminated (e.g. by a signal)
+	 * the capturing is stopped, so that the tweets already captured are processed and stored.
+	 * 
+	 * @param logFile file where the messages are appended, or null to write them to the standard output
+	 * @return the process exit code: 0 if no error was reported, 1 otherwise
+	 */
+	private static int runHeadless(String logFile) {
+		System.setProperty("java.awt.headless", "true"); // the cloud images are drawn without initializing any display
+		Instant start = Instant.now();
+		
+		Writer out;
+		try {
+			OutputStream stream = logFile == null ? System.out : new FileOutputStream(logFile, true);
+			out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			return 1;
+		}
+		StreamLog filtering = new StreamLog("filtering", out);
+		StreamLog dbLog = new StreamLog("database", out);
+		
+		CloudGenerator generator = new CloudGenerator();
+		CountDownLatch done = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if(done.getCount() == 0) return; // normal exit
+			
+			filtering.write("terminated, stopping capturing...", Color.green);
+			generator.stop();
+			try {
+				done.await(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				// exit anyway
+			}
+		}));
+		
+		try {
+			Config conf = new Config(filtering);
+			generator.generate(conf, filtering, dbLog);
+		} catch(IOException e) {
+			filtering.write(e.getMessage(), Color.red);
+		} catch(RuntimeException e) {
+			e.printStackTrace();
+			filtering.write(e.toString(), Color.red);
+		}
+		
+		filtering.write("elapsed time: " + Duration.between(start, Instant.now()));
+		filtering.close();
+		dbLog.close();
+		try {
+			out.flush();
+			if(logFile != null) out.close();
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+		}
+		done.countDown();
+		
+		return filtering.getErrors() + dbLog.getErrors() > 0 ? 1 : 0;
+	}
+	
 	/**
 	 * Start the stream of tweet (either from file or live from twitter), 
 	 * perform the filtering and produce the word clouds for each recognized time window
@@ -45,103 +142,90 @@ public class CloudGenerator {
 	 * @param filteringLog the main console where to report any message concerning the filtering/cloud generation process
 	 * @param dbLog the console where messages from database interaction are reported
 	 */
-	public void generate(Config conf, MessageConsole filteringLog, MessageConsole dbLog) {
+	public void generate(Config conf, Log filteringLog, Log dbLog) {
+		// periodically write the metrics of the pipeline, if requested by the 'metricsFile' option
+		MetricsReporter metrics = null;
+		if(!conf.getMetricsFile().isEmpty()) {
+			metrics = new MetricsReporter(Paths.get(conf.getMetricsFile()), conf.getMetricsInterval(), filteringLog);
+		}
+		
 		Capturing capturing = new Capturing(conf, filteringLog, dbLog);
-		Filtering filtering = new Filtering(conf, filteringLog);
+		this.capturing = capturing;
+		TokenDictionary dictionary = new TokenDictionary(); // shared by all the phases, to encode the words of the tweets
+		Filtering filtering = new Filtering(conf, dictionary, filteringLog);
 //		Assessment assessment = new Assessment(conf, filteringLog);
 		
-		filteringLog.setCapturing(capturing);
-		dbLog.setCapturing(capturing);
+		// closing a console window stops the capturing
+		if(filteringLog instanceof MessageConsole) ((MessageConsole) filteringLog).setCapturing(capturing);
+		if(dbLog instanceof MessageConsole) ((MessageConsole) dbLog).setCapturing(capturing);
 		
 		try {
 			// apply the filters specified in filtering.conf
 			// and create the time windows by grouping tweets in the same time interval.
 			// The time interval of a window is specified by the refreshTime option in assessment.conf
 			
-			Map<Instant, List<Tweet>> timeWindows = capturing.getStream() // take the stream of tweets. This will be from file if 'demo' is true in platform.conf, otherwise from twitter
+			Stream<FilteredTweet> tweets = capturing.getStream() // take the stream of tweets. This will be from file if 'demo' is true in platform.conf, otherwise from twitter
 				.map(filtering) // apply the filter to tweet text and flag as discarded if appropriate
-				.filter((Tweet tweet) -> !tweet.isDiscarded()) // remove flagged tweets from the stream
-				// group together tweets belonging to the same time window and output a Map having the time window 
-				// initial instant as key and the list of tweets as values 
-				.collect(Collectors.groupingBy((Tweet tweet ) -> { // TODO ci sono modi pi efficienti per suddividere i tweet
-					Instant i = capturing.getFirstWindowStart();
-					Instant last = i;
-					Instant tweetTimestamp = tweet.getTimestamp(); 
-					while(i.isBefore(tweetTimestamp)) {
-						last = i;
-						i = i.plusMillis(conf.getRefreshTime());
-					}
-					return last;
-				}));
+				.filter((FilteredTweet tweet) -> !tweet.isDiscarded()); // remove flagged tweets from the stream
+			WindowClassifier classifier = new WindowClassifier(capturing.getFirstWindowStart(), conf.getRefreshTime());
 			
-			filteringLog.write(timeWindows.size() + " time windows generated. Starting assessment...", Color.green);
+			// execute the assessment tasks of the time windows on a bounded pool of threads
+			AssessmentScheduler scheduler = new AssessmentScheduler(conf.getAssessmentThreads(), conf.getAssessmentQueue(), filteringLog);
 			
-			// for each time window, apply the filters specified in assessment.conf
-			// and generate the tag cloud
-			
-			SimpleDateFormat formatter = new SimpleDateFormat("HHmmss"); // timestamp id formatter
-
-//			// serial execution of assessment for each time window
-//			for(Map.Entry<Instant, List<Tweet>> window : timeWindows.entrySet()) {
-//				// create the unique id for the output files using the window starting instant
-//				Date timestamp = Date.from(window.getKey());
-//				String id = formatter.format(timestamp);
-//				
-//				filteringLog.write("processing time window " + id + "...");
-//				
-//				Map<String, Long> frequencies = window.getValue().stream() // take the stream of tweets in this time window list
-//					.flatMap(tweet -> Arrays.asList(tweet.getText().split("\\s+")).stream()) // explode each tweet text into a stream of words
-//					.collect(Collectors.groupingBy((String word) -> word, Collectors.mapping((String word) -> word, Collectors.counting()))); // "mapreduce" the stream of words into a Map<String, Long> associating each words to its frequency, return the Map
-//				
-//				// further filter on minimum word length and frequency
-//				// and generate the tag cloud for the current time window
-//				assessment
-//					.setUniqueID(id) // has to be called before the 'generate' methods
-//					.filterByConfigThresholds(frequencies) // apply the minimum length and frequency filters
-//					.generateCloudText() // generate the cloud txt file
-//					.generateCloudImage(); // generate the cloud image
-//				
-//				filteringLog.write("done processing time window " + id);
-//			}
-//			
-//			filteringLog.write("done.", Color.green);
-			
-			// execute the assessment task in parallel for all the time windows
-			@SuppressWarnings("unchecked")
-			Map.Entry<Instant, List<Tweet>> timeWindowsArray[] = (Entry<Instant, List<Tweet>>[]) timeWindows.entrySet().toArray(new Map.Entry[0]);
-			Thread worker[] = new Thread[timeWindowsArray.length];
-			for(int i = 0; i < timeWindowsArray.length; i++) {
-				int j = i;
-				worker[i] = new Thread(() -> {
-					// create the unique id for the output files using the window starting instant
-					Date timestamp = Date.from(timeWindowsArray[j].getKey());
-					String id = formatter.format(timestamp);
+			try {
+				if(conf.isStreaming()) {
+					// count the word and n-gram frequencies of each time window while the tweets are received and
+					// assess each window as soon as it ends, without waiting for the capture to finish
+					WindowAggregator aggregator = new WindowAggregator(classifier, dictionary, conf.getNGramsCardinality(), conf.getLateness(), filteringLog,
+							(index, frequencies) -> assess(scheduler, conf, filteringLog, classifier.windowStart(index), () -> frequencies));
 					
-					filteringLog.write("processing time window " + id + "...");
+					// when capturing online, close the windows even if no tweets are received
+					ScheduledExecutorService clock = null;
+					if(!conf.isDemo()) {
+						clock = Executors.newSingleThreadScheduledExecutor();
+						clock.scheduleAtFixedRate(() -> aggregator.advance(System.currentTimeMillis()), 1, 1, TimeUnit.SECONDS);
+					}
 					
-					Map<String, Long> frequencies = timeWindowsArray[j].getValue().stream() // take the stream of tweets in this time window list
-						.flatMap(tweet -> Arrays.asList(tweet.getText().split("\\s+")).stream()) // explode each tweet text into a stream of words
-						.collect(Collectors.groupingBy((String word) -> word, Collectors.mapping((String word) -> word, Collectors.counting()))); // "mapreduce" the stream of words into a Map<String, Long> associating each words to its frequency, return the Map
+					try {
+						tweets.forEachOrdered(aggregator);
+					} finally {
+						// also when the stream fails, otherwise the clock would keep the application alive
+						if(clock != null) clock.shutdown();
+					}
+					aggregator.flush();
+				} else {
+					// group together tweets belonging to the same time window and output a Map having the time window 
+					// index as key and the tweets, stored by column, as values, sorted by window index
+					long grouping = System.nanoTime();
+					Map<Long, TweetColumns> timeWindows = tweets.collect(TweetColumns.groupingByWindow(classifier));
+					Metrics.histogram("windows.group").recordSince(grouping);
 					
-					// further filter on minimum word length and frequency
-					// and generate the tag cloud for the current time window
-					new Assessment(conf, filteringLog)
-						.setUniqueID(id) // has to be called before the 'generate' methods
-						.filterByConfigThresholds(frequencies) // apply the minimum length and frequency filters
-						.generateCloudText() // generate the cloud txt file
-						.generateCloudImage(); // generate the cloud image
+					filteringLog.write(timeWindows.size() + " time windows generated. Starting assessment...", Color.green);
 					
-					filteringLog.write("done processing time window " + id);
-				});
-				worker[i].start();
+					// execute the assessment task in parallel for all the time windows
+					for(Map.Entry<Long, TweetColumns> window : timeWindows.entrySet()) {
+						// count the words and n-grams of the tweets in this time window, in parallel
+						assess(scheduler, conf, filteringLog, classifier.windowStart(window.getKey()), () -> {
+							long counting = System.nanoTime();
+							WindowCounts counts = window.getValue().count(dictionary, conf.getNGramsCardinality());
+							Metrics.histogram("windows.count").recordSince(counting);
+							return counts;
+						});
+					}
+				}
+			} catch(RuntimeException | Error e) {
+				// the capture or the filtering failed: discard the windows not assessed yet, so that the workers terminate
+				scheduler.shutdownNow();
+				throw e;
 			}
 			
 			// wait for all the assessment task to complete
 			try {
-				for(int i = 0; i < worker.length; i++) {
-					worker[i].join();
-				}
+				scheduler.awaitCompletion();
 				filteringLog.write("done.", Color.green);
+				
+				// the tweets are stored in the database in background, independently of the assessment
+				capturing.awaitTermination();
 			} catch(InterruptedException e) {
 				filteringLog.write(e.getMessage(), Color.red);
 			}
@@ -154,6 +238,47 @@ public class CloudGenerator {
 			filteringLog.write(e.getMessage(), Color.red);
 		}
 		
+		if(metrics != null) metrics.close();
 		conf.store();
+		this.capturing = null;
+	}
+	
+	/**
+	 * Stop the capturing in progress, if any: the tweets already captured are still processed
+	 * 
+	 * @see Capturing#stop()
+	 */
+	public void stop() {
+		Capturing current = capturing;
+		if(current != null) current.stop();
+	}
+	
+	/**
+	 * Submit the assessment task of a time window, which applies the filters specified in assessment.conf
+	 * and generates the tag cloud.
+	 * 
+	 * @param scheduler executes the assessment task
+	 * @param conf the application configuration object
+	 * @param filteringLog the console where to report any message concerning the cloud generation process
+	 * @param windowStart the starting instant of the time window
+	 * @param frequencies provides the frequency of each word and n-gram in the time window. It is invoked by the assessment task
+	 */
+	private void assess(AssessmentScheduler scheduler, Config conf, Log filteringLog, Instant windowStart, Supplier<WindowCounts> frequencies) {
+		// create the unique id for the output files using the window starting instant
+		String id = new SimpleDateFormat("HHmmss").format(Date.from(windowStart));
+		
+		scheduler.submit(id, () -> {
+			filteringLog.write("processing time window " + id + "...");
+			
+			// further filter on minimum word length and frequency
+			// and generate the tag cloud for the current time window
+			WindowCounts counts = frequencies.get();
+			new Assessment(conf, filteringLog)
+				.setUniqueID(id) // has to be called before the 'generate' methods
+				.filterByConfigThresholds(counts.getWords()) // apply the minimum length and frequency filters
+				.generateCloudText() // generate the cloud txt file
+				.generateNGramsText(counts.getNGrams()) // generate the n-grams txt file
+				.generateCloudImage(); // generate the cloud image
+		});
 	}
 }
@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Properties;
@@ -40,6 +41,21 @@ public class Config {
 	private String dbPassword;
 	private String dbSchema;
 	private String dbTable;
+	private int dbBatchSize;
+	private long dbMaxLatency;
+	private int dbWriters;
+	private int captureQueueSize;
+	private OverflowPolicy captureQueuePolicy;
+	private int dbQueueSize;
+	private OverflowPolicy dbQueuePolicy;
+	private String walDirectory;
+	private long walSegmentSize;
+	private String archiveFile;
+	private boolean archiveCompression;
+	private Instant replayFrom;
+	private Instant replayTo;
+	private String metricsFile;
+	private long metricsInterval;
 	
 	// capturing.conf
 	private Properties capturing;
@@ -55,6 +71,7 @@ public class Config {
 	private WordList stopWords;
 	private WordList baseline;
 	private WordList badWords;
+	private String engine;
 	
 	// assessment.conf
 	private Properties assessment;
@@ -66,6 +83,12 @@ public class Config {
 	private double angleInclination;
 	private int inclinationStep;
 	private int refreshTime;
+	private boolean streaming;
+	private long lateness;
+	private int assessmentThreads;
+	private int assessmentQueue;
+	private int nGramsCardinality;
+	private int nGramsNumber;
 	
 	/**
 	 * Easily handle the conversion between space-separated list of words and its
@@ -112,6 +135,21 @@ public class Config {
 		dbPassword = platform.getProperty("dbPassword", "");
 		dbSchema = platform.getProperty("dbSchema", "test");
 		dbTable = platform.getProperty("dbTable", "time_series");
+		dbBatchSize = Integer.parseInt(platform.getProperty("dbBatchSize", "200"));
+		dbMaxLatency = Long.parseLong(platform.getProperty("dbMaxLatency", "1000"));
+		dbWriters = Integer.parseInt(platform.getProperty("dbWriters", "1"));
+		captureQueueSize = Integer.parseInt(platform.getProperty("captureQueueSize", "10000"));
+		captureQueuePolicy = OverflowPolicy.valueOf(platform.getProperty("captureQueuePolicy", "BLOCK").toUpperCase());
+		dbQueueSize = Integer.parseInt(platform.getProperty("dbQueueSize", "10000"));
+		dbQueuePolicy = OverflowPolicy.valueOf(platform.getProperty("dbQueuePolicy", "BLOCK").toUpperCase());
+		walDirectory = platform.getProperty("walDirectory", "wal");
+		walSegmentSize = Long.parseLong(platform.getProperty("walSegmentSize", "16777216"));
+		archiveFile = platform.getProperty("archiveFile", "");
+		archiveCompression = Boolean.parseBoolean(platform.getProperty("archiveCompression", "true"));
+		replayFrom = parseInstant(platform.getProperty("replayFrom", ""));
+		replayTo = parseInstant(platform.getProperty("replayTo", ""));
+		metricsFile = platform.getProperty("metricsFile", "");
+		metricsInterval = Long.parseLong(platform.getProperty("metricsInterval", "10000"));
 		
 		input.close();
 		
@@ -137,6 +175,7 @@ public class Config {
 		stopWords = new WordList(filtering.getProperty("stopWords", ""));
 		baseline = new WordList(filtering.getProperty("baseline", ""));
 		badWords = new WordList(filtering.getProperty("badWords", ""));
+		engine = filtering.getProperty("engine", "automaton");
 		
 		input.close();
 		
@@ -153,6 +192,12 @@ public class Config {
 		angleInclination = Double.parseDouble(assessment.getProperty("angleInclination", "0"));
 		inclinationStep = Integer.parseInt(assessment.getProperty("inclinationStep", "0"));
 		refreshTime = Integer.parseInt(assessment.getProperty("refreshTime", "60000"));
+		streaming = Boolean.parseBoolean(assessment.getProperty("streaming", "false"));
+		lateness = Long.parseLong(assessment.getProperty("lateness", "5000"));
+		assessmentThreads = Integer.parseInt(assessment.getProperty("assessmentThreads", "0"));
+		assessmentQueue = Integer.parseInt(assessment.getProperty("assessmentQueue", "16"));
+		nGramsCardinality = Integer.parseInt(assessment.getProperty("nGramsCardinality", "4"));
+		nGramsNumber = Integer.parseInt(assessment.getProperty("nGramsNumber", "10"));
 		
 		input.close();
 	}
@@ -244,6 +289,13 @@ public class Config {
 		return badWords;
 	}
 
+	/**
+	 * @return the engine used to apply the filters: "automaton" or "regex"
+	 */
+	public String getEngine() {
+		return engine;
+	}
+
 	public String getPlatform() {
 		return platformFile;
 	}
@@ -368,6 +420,11 @@ public class Config {
 		filtering.setProperty("badWords", this.badWords.toString());
 	}
 
+	public void setEngine(String engine) {
+		this.engine = engine;
+		filtering.setProperty("engine", engine);
+	}
+
 	public void setMinWordLength(int minWordLength) {
 		this.minWordLength = minWordLength;
 		assessment.setProperty("minWordLength", String.valueOf(minWordLength));
@@ -411,4 +468,269 @@ public class Config {
 	public int getRefreshTime() {
 		return refreshTime;
 	}
+
+	/**
+	 * @return true if the time windows are assessed as soon as they end, while the capture continues
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		assessment.setProperty("streaming", String.valueOf(streaming));
+	}
+
+	/**
+	 * @return how long to wait, after the end of a time window, for late tweets before assessing it (milliseconds)
+	 */
+	public long getLateness() {
+		return lateness;
+	}
+
+	public void setLateness(long lateness) {
+		this.lateness = lateness;
+		assessment.setProperty("lateness", String.valueOf(lateness));
+	}
+
+	/**
+	 * @return number of threads assessing the time windows in parallel, 0 to use one thread for each processor
+	 */
+	public int getAssessmentThreads() {
+		return assessmentThreads;
+	}
+
+	public void setAssessmentThreads(int assessmentThreads) {
+		this.assessmentThreads = assessmentThreads;
+		assessment.setProperty("assessmentThreads", String.valueOf(assessmentThreads));
+	}
+
+	/**
+	 * @return maximum number of time windows waiting for a free assessment thread
+	 */
+	public int getAssessmentQueue() {
+		return assessmentQueue;
+	}
+
+	public void setAssessmentQueue(int assessmentQueue) {
+		this.assessmentQueue = assessmentQueue;
+		assessment.setProperty("assessmentQueue", String.valueOf(assessmentQueue));
+	}
+
+	/**
+	 * @return maximum length of the n-grams counted in each time window, less than 2 to disable the n-grams
+	 */
+	public int getNGramsCardinality() {
+		return nGramsCardinality;
+	}
+
+	public void setNGramsCardinality(int nGramsCardinality) {
+		this.nGramsCardinality = nGramsCardinality;
+		assessment.setProperty("nGramsCardinality", String.valueOf(nGramsCardinality));
+	}
+
+	/**
+	 * @return number of most frequent n-grams reported for each length
+	 */
+	public int getNGramsNumber() {
+		return nGramsNumber;
+	}
+
+	public void setNGramsNumber(int nGramsNumber) {
+		this.nGramsNumber = nGramsNumber;
+		assessment.setProperty("nGramsNumber", String.valueOf(nGramsNumber));
+	}
+
+	/**
+	 * @return maximum number of tweets written to the database in a single batch
+	 */
+	public int getDbBatchSize() {
+		return dbBatchSize;
+	}
+
+	public void setDbBatchSize(int dbBatchSize) {
+		this.dbBatchSize = dbBatchSize;
+		platform.setProperty("dbBatchSize", String.valueOf(dbBatchSize));
+	}
+
+	/**
+	 * @return maximum time a tweet waits before its batch is written to the database (milliseconds)
+	 */
+	public long getDbMaxLatency() {
+		return dbMaxLatency;
+	}
+
+	public void setDbMaxLatency(long dbMaxLatency) {
+		this.dbMaxLatency = dbMaxLatency;
+		platform.setProperty("dbMaxLatency", String.valueOf(dbMaxLatency));
+	}
+
+	/**
+	 * @return number of threads storing the tweets in the database in parallel, each one with its own connection
+	 */
+	public int getDbWriters() {
+		return dbWriters;
+	}
+
+	public void setDbWriters(int dbWriters) {
+		this.dbWriters = dbWriters;
+		platform.setProperty("dbWriters", String.valueOf(dbWriters));
+	}
+
+	/**
+	 * @return maximum number of captured tweets kept in memory waiting to be filtered
+	 */
+	public int getCaptureQueueSize() {
+		return captureQueueSize;
+	}
+
+	public void setCaptureQueueSize(int captureQueueSize) {
+		this.captureQueueSize = captureQueueSize;
+		platform.setProperty("captureQueueSize", String.valueOf(captureQueueSize));
+	}
+
+	/**
+	 * @return what to do with the captured tweets when the capture queue is full
+	 */
+	public OverflowPolicy getCaptureQueuePolicy() {
+		return captureQueuePolicy;
+	}
+
+	public void setCaptureQueuePolicy(OverflowPolicy captureQueuePolicy) {
+		this.captureQueuePolicy = captureQueuePolicy;
+		platform.setProperty("captureQueuePolicy", captureQueuePolicy.name());
+	}
+
+	/**
+	 * @return maximum number of tweets kept in memory by each database writer, waiting to be stored
+	 */
+	public int getDbQueueSize() {
+		return dbQueueSize;
+	}
+
+	public void setDbQueueSize(int dbQueueSize) {
+		this.dbQueueSize = dbQueueSize;
+		platform.setProperty("dbQueueSize", String.valueOf(dbQueueSize));
+	}
+
+	/**
+	 * @return what to do with the tweets to be stored when the queue of a database writer is full
+	 */
+	public OverflowPolicy getDbQueuePolicy() {
+		return dbQueuePolicy;
+	}
+
+	public void setDbQueuePolicy(OverflowPolicy dbQueuePolicy) {
+		this.dbQueuePolicy = dbQueuePolicy;
+		platform.setProperty("dbQueuePolicy", dbQueuePolicy.name());
+	}
+
+	/**
+	 * @return directory of the write-ahead logs, where the tweets are kept until they are stored in the database
+	 */
+	public String getWalDirectory() {
+		return walDirectory;
+	}
+
+	public void setWalDirectory(String walDirectory) {
+		this.walDirectory = walDirectory;
+		platform.setProperty("walDirectory", walDirectory);
+	}
+
+	/**
+	 * @return size (bytes) of the write-ahead log segment files
+	 */
+	public long getWalSegmentSize() {
+		return walSegmentSize;
+	}
+
+	public void setWalSegmentSize(long walSegmentSize) {
+		this.walSegmentSize = walSegmentSize;
+		platform.setProperty("walSegmentSize", String.valueOf(walSegmentSize));
+	}
+
+	/**
+	 * @return binary archive where the tweets captured online are saved, for a later replay. Empty if the tweets are not saved
+	 */
+	public String getArchiveFile() {
+		return archiveFile;
+	}
+
+	public void setArchiveFile(String archiveFile) {
+		this.archiveFile = archiveFile;
+		platform.setProperty("archiveFile", archiveFile);
+	}
+
+	/**
+	 * @return true if the blocks of the binary archive are compressed
+	 */
+	public boolean isArchiveCompression() {
+		return archiveCompression;
+	}
+
+	public void setArchiveCompression(boolean archiveCompression) {
+		this.archiveCompression = archiveCompression;
+		platform.setProperty("archiveCompression", String.valueOf(archiveCompression));
+	}
+
+	/**
+	 * @return the instant from which the tweets in the file are replayed, or null to replay from the first tweet
+	 */
+	public Instant getReplayFrom() {
+		return replayFrom;
+	}
+
+	public void setReplayFrom(Instant replayFrom) {
+		this.replayFrom = replayFrom;
+		platform.setProperty("replayFrom", formatInstant(replayFrom));
+	}
+
+	/**
+	 * @return the instant until which (excluded) the tweets in the file are replayed, or null to replay up to the last tweet
+	 */
+	public Instant getReplayTo() {
+		return replayTo;
+	}
+
+	public void setReplayTo(Instant replayTo) {
+		this.replayTo = replayTo;
+		platform.setProperty("replayTo", formatInstant(replayTo));
+	}
+	
+	/**
+	 * @return file where the metrics of the pipeline are periodically appended. Empty if the metrics are not written
+	 */
+	public String getMetricsFile() {
+		return metricsFile;
+	}
+
+	public void setMetricsFile(String metricsFile) {
+		this.metricsFile = metricsFile;
+		platform.setProperty("metricsFile", metricsFile);
+	}
+
+	/**
+	 * @return interval (milliseconds) between two reports of the metrics
+	 */
+	public long getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	public void setMetricsInterval(long metricsInterval) {
+		this.metricsInterval = metricsInterval;
+		platform.setProperty("metricsInterval", String.valueOf(metricsInterval));
+	}
+	
+	/**
+	 * @param value a timestamp in the same format of the tweet files, or an empty string
+	 * @return the corresponding instant, or null if the value is empty
+	 */
+	private static Instant parseInstant(String value) {
+		if(value.trim().isEmpty()) return null;
+		return Instant.ofEpochMilli(TimestampFormat.parse(value.trim()));
+	}
+	
+	private static String formatInstant(Instant instant) {
+		return instant == null ? "" : TimestampFormat.format(instant.toEpochMilli());
+	}
 }
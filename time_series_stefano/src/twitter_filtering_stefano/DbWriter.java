@@ -1,76 +1,130 @@
 package twitter_filtering_stefano;
 
 import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.BatchUpdateException;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.time.Instant;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handle the interaction with the database. This class implements a parallel thread that receive some tweets
  * and execute the specified prepared query on them.
  * 
+ * The received tweets are first appended to a {@link WriteAheadLog} on disk, so the capture does not depend on
+ * the availability and latency of the database. They are taken from the queue in bulk and made durable in batches:
+ * a batch is forced to disk when it reaches the configured 'dbBatchSize' or when its first tweet has waited for
+ * 'dbMaxLatency' milliseconds, whichever comes first.
+ * 
+ * A second thread reads the log and stores the tweets in the database, using multi-row insert statements.
+ * The connection is opened only when there are tweets to store. If the database fails, the connection is
+ * opened again later and the tweets not committed are read again from the log. The tweets still in the log
+ * when the stream ends and the database is unreachable are stored at the next start.
+ * 
+ * A batch rejected by the database for a permanent error (e.g. a duplicate key or a text not accepted by
+ * the table) is not retried as a whole: its tweets are stored one by one, the tweets already stored are skipped
+ * and the ones still rejected after {@link #MAX_ROW_ATTEMPTS} attempts are appended to the dead letter file
+ * of the log directory, in the format of test.txt, so that a bad tweet never blocks the following ones.
+ * 
  * @author stefano
  *
  */
 public class DbWriter extends Thread {
 
-	private MessageConsole console;
-	private LinkedBlockingQueue<Tweet> queue;
+	private static final long MIN_RETRY_DELAY = 1000; // milliseconds
+	private static final long MAX_RETRY_DELAY = 30000; // milliseconds
+	private static final int MAX_ROW_ATTEMPTS = 3;
+	private static final String DEAD_LETTER = "dead-letter.txt";
+	private static final int ER_DUP_ENTRY = 1062; // MySQL error code of a duplicate key
+
+	private Config config;
+	private String preparedQuery;
+	private Log console;
+	private TweetQueue queue;
 	
-	private MySQLBridge dbConn;
-	private boolean stop = false;
+	private WriteAheadLog wal;
+	private Replayer replayer = new Replayer();
 	
-	private int values = 0;
-	private final int threshold = 200;
-	private PreparedStatement query;
+	private int values = 0; // tweets appended to the log and not synced yet
+	private long deadline; // when the current batch has to be synced, as System.nanoTime()
+	private int batchSize;
+	private long maxLatency; // nanoseconds
 	
-	public DbWriter(Config config, String preparedQuery, MessageConsole console) throws ClassNotFoundException, SQLException {
+	private static final LatencyHistogram SYNC_LATENCY = Metrics.histogram("db.wal.sync");
+	private static final LatencyHistogram BATCH_LATENCY = Metrics.histogram("db.batch");
+	private static final Metrics.Counter STORED = Metrics.counter("db.tweets");
+	private static final Metrics.Counter FAILURES = Metrics.counter("db.failures");
+	private static final Metrics.Counter REJECTED = Metrics.counter("db.rejected");
+	
+	/**
+	 * @param config the configuration object
+	 * @param preparedQuery the query executed on each tweet
+	 * @param shard index of this writer, used to give each writer its own write-ahead log
+	 * @param singleProducer true if the tweets are enqueued by a single thread
+	 * @param console where to report any message
+	 * @throws IOException if the write-ahead log can not be opened
+	 */
+	public DbWriter(Config config, String preparedQuery, int shard, boolean singleProducer, Log console) throws IOException {
+		this.config = config;
+		this.preparedQuery = preparedQuery;
 		this.console = console;
+		batchSize = Math.max(config.getDbBatchSize(), 1);
+		maxLatency = TimeUnit.MILLISECONDS.toNanos(config.getDbMaxLatency());
 		
-		// connect to database
-		dbConn = new MySQLBridge(config.getDbAddress(), config.getDbUser(), config.getDbPassword(), config.getDbSchema());
+		wal = new WriteAheadLog(Paths.get(config.getWalDirectory(), "shard-" + shard), config.getWalSegmentSize());
 		
-		// prepare query
-		query = dbConn.getConnection().prepareStatement(preparedQuery);
-		
-		queue = new LinkedBlockingQueue<>();
+		// bounded queue, handling the overflows according to the 'dbQueuePolicy' option
+		queue = TweetQueue.create(config.getDbQueueSize(), config.getDbQueuePolicy(), singleProducer);
+		Metrics.gauge("db.queue.shard-" + shard, queue::size);
 	}
 	
 	/**
-	 * Store the received tweet in the database. This method actually performs the query only when either a threshold number
-	 * of tweets have been received or when the tweet input queue is empty, i.e. further waiting would waste time.
+	 * Append the received tweet to the write-ahead log. The tweet is made durable by {@link #flush()}.
 	 * 
 	 * @param tweet the tweet to be stored in the database
 	 */
-	private void storeInDB(Tweet tweet) {
+	private void addToBatch(Tweet tweet) {
 		try {
-			// ignore 'poison' element, see https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/BlockingQueue.html
-			if(tweet.getId() > 0) {
-				query.setLong(1, tweet.getId());
-				query.setString(2, tweet.getText());
-				//query.setString(3, tweet.getTimestampAsString());
-				query.setDate(3, new java.sql.Date(Date.from(tweet.getTimestamp()).getTime()));
-				query.addBatch();
-				
-				values++;
-			}
+			wal.append(tweet);
 			
-			// this check must be done outside the above if, otherwise the last tweets won't be written in the DB
-			if(values >= threshold || queue.isEmpty()) {
-				query.executeBatch();
-				dbConn.getConnection().commit();
-				
-				console.write(values + " tweets stored in DB");
-				query.clearBatch();
-				values = 0;
-			}
-		} catch (SQLException e) {
+			if(values == 0) deadline = System.nanoTime() + maxLatency;
+			values++;
+		} catch (IOException e) {
 			console.write(tweet.toString(), Color.red);
 			console.write(e.getMessage(), Color.red);
 		}
 	}
+	
+	/**
+	 * Force the current batch to disk, if not empty, making it available to the database thread
+	 */
+	private void flush() {
+		if(values == 0) return;
+		
+		try {
+			long start = System.nanoTime();
+			wal.sync();
+			SYNC_LATENCY.recordSince(start);
+		} catch (IOException e) {
+			console.write(values + " tweets not written in the log", Color.red);
+			console.write(e.getMessage(), Color.red);
+		}
+		values = 0;
+	}
 
 	/**
 	 * Add a tweet to the queue of tweets waiting to be written in the database.
@@ -89,23 +143,272 @@ public class DbWriter extends Thread {
 	 * Signal the end of tweet stream. This forces the flush of the enqueued tweets to be stored in the database, if any.
 	 */
 	public void finish() {
-		stop = true;
-		queue.add(new Tweet(-1L, "", Instant.now())); // insert 'poison' element to unlock the waiting queue, see https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/BlockingQueue.html
+		queue.close(); // unlock the waiting queue once it is empty
 		console.write("received 'finish' signal, emptying queue...", Color.green);
 	}
 
+	/**
+	 * Start both the thread writing the log and the one storing the tweets in the database
+	 */
+	@Override
+	public synchronized void start() {
+		replayer.start();
+		super.start();
+	}
+
 	@Override
 	public void run() {
-		while(!stop || !queue.isEmpty()) {
+		ArrayList<Tweet> received = new ArrayList<>(batchSize);
+		while(!queue.isClosed() || !queue.isEmpty()) {
 			try {
-				storeInDB(queue.take());
+				// wait for the first tweet of a batch, or until the current batch has to be written
+				Tweet tweet = values == 0 ? queue.take() : queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(tweet != null) {
+					// take all the other tweets already waiting, up to the batch size
+					received.add(tweet);
+					queue.drainTo(received, batchSize - values - 1);
+					for(Tweet t : received) {
+						addToBatch(t);
+					}
+					received.clear();
+				}
+				
+				if(values >= batchSize || (values > 0 && System.nanoTime() - deadline >= 0)) {
+					flush();
+				}
 			} catch (InterruptedException e) {
 				console.write(e.getMessage(), Color.red);
 			}
 		}
-		console.write("closing DB connection...", Color.green);
-		dbConn.closeConnection();
+		flush();
+		
+		try {
+			wal.close();
+		} catch (IOException e) {
+			console.write(e.getMessage(), Color.red);
+		}
+		
+		// wait for the tweets in the log to be stored in the database
+		try {
+			replayer.join();
+		} catch (InterruptedException e) {
+			console.write(e.getMessage(), Color.red);
+		}
+		
+		console.write("queue high water mark: " + queue.getHighWaterMark() + " tweets", Color.green);
+		if(queue.getDropped() > 0) {
+			console.write(queue.getDropped() + " tweets dropped because the queue was full", Color.red);
+		}
+		
 		console.write("done.", Color.green);
 	}
 	
+	/**
+	 * Thread storing in the database the tweets read from the write-ahead log
+	 */
+	private class Replayer extends Thread {
+		private MySQLBridge dbConn = null;
+		private PreparedStatement query = null;
+		
+		@Override
+		public void run() {
+			ArrayList<Tweet> batch = new ArrayList<>(batchSize);
+			long retryDelay = MIN_RETRY_DELAY;
+			
+			try {
+				while(!wal.isDrained()) {
+					if(!wal.await(config.getDbMaxLatency()) || wal.read(batch, batchSize) == 0) continue;
+					
+					try {
+						long start = System.nanoTime();
+						try {
+							store(batch);
+							console.write(batch.size() + " tweets stored in DB");
+						} catch (SQLException e) {
+							if(!isPermanent(e)) throw e;
+							
+							// a tweet of the batch is rejected: retrying the whole batch would fail again
+							console.write(batch.size() + " tweets rejected by DB, storing them one by one: " + e.getMessage(), Color.red);
+							rollback();
+							storeOneByOne(batch);
+						}
+						wal.commit();
+						BATCH_LATENCY.recordSince(start);
+						STORED.add(batch.size());
+						retryDelay = MIN_RETRY_DELAY;
+					} catch (SQLException | ClassNotFoundException e) {
+						FAILURES.increment();
+						console.write(batch.size() + " tweets not stored in DB", Color.red);
+						console.write(e.getMessage(), Color.red);
+						disconnect();
+						wal.rewind(); // the tweets will be read again from the log
+						
+						if(wal.isClosed()) {
+							// the stream has ended, do not wait for the database
+							console.write("tweets left in " + wal.getDirectory() + ", they will be stored at the next start", Color.red);
+							break;
+						}
+						Thread.sleep(retryDelay);
+						retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+					}
+					batch.clear();
+				}
+			} catch (IOException | InterruptedException e) {
+				console.write(e.getMessage(), Color.red);
+			}
+			
+			try {
+				wal.closeReader();
+			} catch (IOException e) {
+				console.write(e.getMessage(), Color.red);
+			}
+			if(dbConn != null) {
+				console.write("closing DB connection...", Color.green);
+				dbConn.closeConnection();
+			}
+		}
+		
+		/**
+		 * Insert the tweets in the database and commit, opening the connection if needed
+		 */
+		private void store(List<Tweet> tweets) throws SQLException, ClassNotFoundException {
+			if(dbConn == null) {
+				// connect to database
+				dbConn = new MySQLBridge(config.getDbAddress(), config.getDbUser(), config.getDbPassword(), config.getDbSchema());
+				
+				// prepare query
+				query = dbConn.getConnection().prepareStatement(preparedQuery);
+			}
+			
+			for(Tweet tweet : tweets) {
+				query.setLong(1, tweet.getId());
+				query.setString(2, tweet.getText());
+				//query.setString(3, tweet.getTimestampAsString());
+				query.setDate(3, new java.sql.Date(Date.from(tweet.getTimestamp()).getTime()));
+				query.addBatch();
+			}
+			query.executeBatch();
+			dbConn.getConnection().commit();
+		}
+		
+		/**
+		 * Store the tweets of a batch rejected by the database one at a time. The tweets already in the database
+		 * are skipped, the ones rejected {@link #MAX_ROW_ATTEMPTS} times are appended to the dead letter file.
+		 * 
+		 * @throws SQLException if the database fails for a transient error, so that the batch has to be retried later
+		 */
+		private void storeOneByOne(List<Tweet> tweets) throws SQLException, ClassNotFoundException, IOException {
+			int stored = 0;
+			for(Tweet tweet : tweets) {
+				for(int attempt = 1; ; attempt++) {
+					try {
+						store(Collections.singletonList(tweet));
+						stored++;
+						break;
+					} catch (SQLException e) {
+						if(!isPermanent(e)) throw e;
+						rollback();
+						
+						if(isDuplicate(e)) {
+							// stored before a crash or by a previous replay of the same file
+							console.count("tweets already in DB", () -> "id: " + tweet.getId(), Color.red);
+							break;
+						}
+						if(attempt >= MAX_ROW_ATTEMPTS) {
+							deadLetter(tweet, e);
+							break;
+						}
+					}
+				}
+			}
+			console.write(stored + " of " + tweets.size() + " tweets stored in DB");
+		}
+		
+		/**
+		 * Append a tweet rejected by the database to the dead letter file, in the format of test.txt
+		 */
+		private void deadLetter(Tweet tweet, SQLException e) throws IOException {
+			REJECTED.increment();
+			Path file = wal.getDirectory().resolve(DEAD_LETTER);
+			console.write("tweet " + tweet.getId() + " rejected by DB, moved to " + file + ": " + e.getMessage(), Color.red);
+			
+			try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				out.write(tweet.getId() + "\t\"" + tweet.getText() + "\"\t\"" + tweet.getTimestampAsString() + "\"\n");
+			}
+		}
+		
+		/**
+		 * Discard the rows inserted by a failed batch, keeping the connection. If the connection
+		 * is not usable, it is dropped.
+		 */
+		private void rollback() {
+			if(dbConn == null) return;
+			try {
+				dbConn.getConnection().rollback();
+			} catch (SQLException e) {
+				disconnect();
+			}
+		}
+		
+		/**
+		 * Drop the connection after a failure, without committing
+		 */
+		private void disconnect() {
+			if(dbConn == null) return;
+			try {
+				dbConn.getConnection().close();
+			} catch (SQLException e) {
+				// the connection is broken anyway
+			}
+			dbConn = null;
+			query = null;
+		}
+	}
+	
+	/**
+	 * @return true if the database rejected the statement itself (e.g. a constraint violation or a value not
+	 * accepted by a column), so that executing it again would fail again
+	 */
+	private static boolean isPermanent(SQLException e) {
+		boolean permanent = false;
+		for(SQLException cause : causes(e)) {
+			if(cause instanceof SQLNonTransientConnectionException || cause instanceof SQLRecoverableException
+					|| cause instanceof SQLTransientException
+					|| (cause.getSQLState() != null && cause.getSQLState().startsWith("08"))) {
+				return false; // the connection failed, the statement may succeed later
+			}
+			if(cause instanceof SQLNonTransientException || cause instanceof BatchUpdateException) {
+				permanent = true;
+			}
+		}
+		return permanent;
+	}
+	
+	/**
+	 * @return true if the statement failed because the row is already in the database
+	 */
+	private static boolean isDuplicate(SQLException e) {
+		for(SQLException cause : causes(e)) {
+			if(cause.getErrorCode() == ER_DUP_ENTRY) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the exception, followed by the chained ones and by its SQL causes
+	 */
+	private static List<SQLException> causes(SQLException e) {
+		ArrayList<SQLException> ret = new ArrayList<>();
+		ArrayList<SQLException> pending = new ArrayList<>();
+		pending.add(e);
+		while(!pending.isEmpty() && ret.size() < 16) {
+			SQLException cause = pending.remove(0);
+			if(ret.contains(cause)) continue;
+			ret.add(cause);
+			if(cause.getNextException() != null) pending.add(cause.getNextException());
+			if(cause.getCause() instanceof SQLException) pending.add((SQLException) cause.getCause());
+		}
+		return ret;
+	}
+	
 }
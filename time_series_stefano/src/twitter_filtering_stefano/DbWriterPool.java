@@ -0,0 +1,88 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ * Set of {@link DbWriter} threads storing the tweets in the database in parallel, each one using its own connection.
+ *
+ * The tweets are partitioned among the writers by their id, so all the tweets having the same id are
+ * handled by the same writer, in the order they have been enqueued.
+ *
+ * @author stefano
+ *
+ */
+public class DbWriterPool {
+
+	private Log console;
+	private DbWriter[] writers;
+
+	/**
+	 * Create the writers, each one with its own connection and write-ahead log. The number of writers is specified by the 'dbWriters' option in platform.conf
+	 *
+	 * @param config the configuration object
+	 * @param preparedQuery the query executed on each tweet
+	 * @param singleProducer true if the tweets are enqueued by a single thread
+	 * @param console where to report any message
+	 * @throws IOException if the write-ahead log of a writer can not be opened
+	 */
+	public DbWriterPool(Config config, String preparedQuery, boolean singleProducer, Log console) throws IOException {
+		this.console = console;
+
+		writers = new DbWriter[Math.max(config.getDbWriters(), 1)];
+		for(int i = 0; i < writers.length; i++) {
+			writers[i] = new DbWriter(config, preparedQuery, i, singleProducer, console);
+		}
+	}
+
+	/**
+	 * Start the writer threads
+	 */
+	public void start() {
+		for(DbWriter writer : writers) {
+			writer.start();
+		}
+	}
+
+	/**
+	 * Add a tweet to the queue of the writer handling its id
+	 *
+	 * @param tweet tweet to add to the database
+	 */
+	public void enqueue(Tweet tweet) {
+		writers[shard(tweet.getId())].enqueue(tweet);
+	}
+
+	/**
+	 * Signal the end of tweet stream to all the writers. The writers keep storing the enqueued tweets
+	 * in background, {@link #awaitTermination()} waits for them.
+	 */
+	public void finish() {
+		for(DbWriter writer : writers) {
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Wait until the writers have stored all the enqueued tweets, or left them in their write-ahead log
+	 * if the database is unreachable. The end of the stream must have been signaled by {@link #finish()}.
+	 */
+	public void awaitTermination() {
+		for(DbWriter writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				console.write(e.getMessage(), Color.red);
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the writer handling the tweets having the given id
+	 */
+	private int shard(long id) {
+		// mix the bits of the id, since the lowest bits of the tweet ids are often the same
+		int hash = Long.hashCode(id * 0x9E3779B97F4A7C15L);
+		return Math.floorMod(hash, writers.length);
+	}
+}
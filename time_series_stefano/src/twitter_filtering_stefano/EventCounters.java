@@ -0,0 +1,85 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Count the occurrences of the frequent events reported to a {@link Log} by {@link Log#count(String, Supplier, Color)},
+ * so that they can be periodically reported as a summary rather than one by one.
+ *
+ * Events can be counted by any thread without contention, while the summaries must be produced by a single thread.
+ *
+ * @author stefano
+ *
+ */
+public class EventCounters {
+
+	/**
+	 * Receive the summary of an event
+	 */
+	public interface SummaryConsumer {
+		void accept(String summary, Color color);
+	}
+
+	/**
+	 * Occurrences of a counted event
+	 */
+	private static class Counter {
+		final Color color;
+		final LongAdder count = new LongAdder();
+		volatile Supplier<String> last; // description of the last occurrence
+		long reported = 0; // occurrences already summarized, accessed by the summarizing thread only
+
+		Counter(Color color) {
+			this.color = color;
+		}
+	}
+
+	private ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>(); // counted events, by description
+	private long lastSummary = System.currentTimeMillis();
+
+	/**
+	 * Count an occurrence of an event
+	 *
+	 * @param event description of the event
+	 * @param last provides the description of this occurrence
+	 * @param color color of the summary of the event
+	 */
+	public void count(String event, Supplier<String> last, Color color) {
+		Counter counter = counters.get(event);
+		if(counter == null) counter = counters.computeIfAbsent(event, k -> new Counter(color));
+		counter.last = last;
+		counter.count.increment();
+	}
+
+	/**
+	 * Produce the summary of the events occurred since the previous summary: total number of occurrences,
+	 * rate and description of the last occurrence
+	 *
+	 * @param now current time (epoch milliseconds)
+	 * @param consumer receives the summary of each event occurred since the previous summary
+	 */
+	public void summarize(long now, SummaryConsumer consumer) {
+		long elapsed = Math.max(1, now - lastSummary);
+		for(Map.Entry<String, Counter> entry : counters.entrySet()) {
+			Counter counter = entry.getValue();
+			long count = counter.count.sum();
+			if(count == counter.reported) continue;
+
+			long rate = (count - counter.reported) * 1000 / elapsed;
+			consumer.accept(entry.getKey() + ": " + count + " (" + rate + "/s), last " + counter.last.get(), counter.color);
+			counter.reported = count;
+		}
+		lastSummary = now;
+	}
+
+	/**
+	 * @return the time (epoch milliseconds) of the last summary
+	 */
+	public long getLastSummary() {
+		return lastSummary;
+	}
+}
@@ -0,0 +1,363 @@
+package twitter_filtering_stefano;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton removing from a text all the configured words in a single scan.
+ *
+ * Three kinds of patterns can be added to the automaton:
+ * <ul>
+ * <li>substrings, removed wherever they are found (used for punteggiatura)</li>
+ * <li>whole words, removed only when surrounded by word boundaries, with the same meaning of
+ * the {@code \b} regexp construct (used for stopWords, badWords, keywords and baseline)</li>
+ * <li>link schemes (http://, https://, ftp://, file://), removed along with the rest of the link</li>
+ * </ul>
+ * Removed text is replaced by a single space, and multiple whitespaces are collapsed, so the result
+ * is the same obtained by applying the regexp filters one after the other.
+ *
+ * The automaton is immutable once built, so it can be shared by several threads.
+ *
+ * @author stefano
+ *
+ */
+public class FilterAutomaton {
+
+	private static final int SUBSTRING = 1;
+	private static final int WHOLE_WORD = 2;
+	private static final int LINK = 4;
+
+	private static final String[] LINK_SCHEMES = { "http://", "https://", "ftp://", "file://" };
+
+	private static final int ROOT = 0;
+
+	// goto function: the children of node n are stored in edgeChar/edgeTarget between the
+	// indexes edgeStart[n] (inclusive) and edgeStart[n+1] (exclusive), sorted by character
+	private int[] edgeStart;
+	private char[] edgeChar;
+	private int[] edgeTarget;
+	private int[] rootAscii; // children of the root for ASCII characters, -1 if missing
+
+	private int[] fail; // failure function
+	private int[] outputLink; // nearest node in the failure chain having some patterns ending in it, -1 if none
+	private int[] kinds; // kinds of the patterns ending in each node
+	private int[] depth; // length of the patterns ending in each node
+
+	/**
+	 * Build the automaton from the filtering configurations
+	 *
+	 * @param config the configuration object
+	 */
+	public FilterAutomaton(Config config) {
+		Builder builder = new Builder();
+
+		builder.addAll(config.getPunteggiatura(), SUBSTRING);
+		builder.addAll(config.getStopWords(), WHOLE_WORD);
+		builder.addAll(config.getBadWords(), WHOLE_WORD);
+		builder.addAll(config.getKeywords(), WHOLE_WORD);
+		builder.addAll(config.getBaseline(), WHOLE_WORD);
+		builder.addAll(Arrays.asList(LINK_SCHEMES), LINK);
+
+		builder.compile();
+	}
+
+	/**
+	 * Remove all the patterns from {@code text}
+	 *
+	 * @param text the text to filter
+	 * @return the filtered text, having single spaces between the remaining words
+	 */
+	public String filter(String text) {
+		int n = text.length();
+		boolean[] removed = new boolean[n];
+
+		// whole word matches found during the scan, checked later since
+		// the boundaries depend on the substrings removed after them
+		int[] wordStart = new int[8];
+		int[] wordEnd = new int[8];
+		int words = 0;
+
+		int node = ROOT;
+		for(int i = 0; i < n; i++) {
+			node = step(node, text.charAt(i));
+
+			for(int match = kinds[node] != 0 ? node : outputLink[node]; match >= 0; match = outputLink[match]) {
+				int end = i + 1;
+				int start = end - depth[match];
+				int kind = kinds[match];
+
+				if((kind & SUBSTRING) != 0) {
+					Arrays.fill(removed, start, end, true);
+				}
+				if((kind & LINK) != 0) {
+					int linkEnd = linkEnd(text, start, end);
+					if(linkEnd > 0) {
+						Arrays.fill(removed, start, linkEnd, true);
+					}
+				}
+				if((kind & WHOLE_WORD) != 0) {
+					if(words == wordStart.length) {
+						wordStart = Arrays.copyOf(wordStart, words * 2);
+						wordEnd = Arrays.copyOf(wordEnd, words * 2);
+					}
+					wordStart[words] = start;
+					wordEnd[words] = end;
+					words++;
+				}
+			}
+		}
+
+		// keep only the whole words surrounded by boundaries. Removed characters count as spaces
+		// and a word containing removed characters is not matched anymore.
+		int accepted = 0;
+		for(int w = 0; w < words; w++) {
+			int start = wordStart[w];
+			int end = wordEnd[w];
+			if(isBoundary(text, removed, start) && isBoundary(text, removed, end) && !isRemoved(removed, start, end)) {
+				wordStart[accepted] = start;
+				wordEnd[accepted] = end;
+				accepted++;
+			}
+		}
+		for(int w = 0; w < accepted; w++) {
+			Arrays.fill(removed, wordStart[w], wordEnd[w], true);
+		}
+
+		// build the result replacing removed characters with spaces and collapsing whitespaces
+		StringBuilder ret = new StringBuilder(n);
+		boolean space = false;
+		for(int i = 0; i < n; i++) {
+			char c = text.charAt(i);
+			if(removed[i] || isSpace(c)) {
+				space = true;
+			} else {
+				if(space && ret.length() > 0) ret.append(' ');
+				space = false;
+				ret.append(c);
+			}
+		}
+		return ret.toString().trim();
+	}
+
+	/**
+	 * Move the automaton from {@code node} consuming {@code c}
+	 */
+	private int step(int node, char c) {
+		while(true) {
+			int next = child(node, c);
+			if(next >= 0) return next;
+			if(node == ROOT) return ROOT;
+			node = fail[node];
+		}
+	}
+
+	/**
+	 * @return the child of {@code node} following the edge labeled {@code c}, or -1 if there is no such child
+	 */
+	private int child(int node, char c) {
+		if(node == ROOT && c < rootAscii.length) {
+			return rootAscii[c];
+		}
+
+		int low = edgeStart[node];
+		int high = edgeStart[node + 1] - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			char m = edgeChar[middle];
+			if(m < c) {
+				low = middle + 1;
+			} else if(m > c) {
+				high = middle - 1;
+			} else {
+				return edgeTarget[middle];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compute the end of the link whose scheme has been found between {@code start} and {@code end}.
+	 * This is equivalent to the regexp
+	 * {@code \b(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]\b}
+	 *
+	 * @return the index following the last character of the link, or -1 if there is no link
+	 */
+	private static int linkEnd(String text, int start, int end) {
+		if(start > 0 && isWordCharBefore(text, null, start)) return -1;
+
+		int n = text.length();
+		int last = end;
+		while(last < n && isLinkChar(text.charAt(last))) last++;
+
+		// backtrack until the link ends with a valid character followed by a boundary
+		for(int i = last; i > end; i--) {
+			boolean boundary = isWordCharBefore(text, null, i) != (i < n && isWordCharAt(text, null, i));
+			if(boundary && isLinkEndChar(text.charAt(i - 1))) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Check the word boundary before position {@code i}, considering removed characters as spaces
+	 */
+	private static boolean isBoundary(String text, boolean[] removed, int i) {
+		boolean before = i > 0 && isWordCharBefore(text, removed, i);
+		boolean after = i < text.length() && isWordCharAt(text, removed, i);
+		return before != after;
+	}
+
+	private static boolean isRemoved(boolean[] removed, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(removed[i]) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the character at position {@code i} is a word character, as considered by the {@code \b} regexp
+	 * construct (up to Java 18): a letter, a digit or '_', or a non spacing mark (e.g. a combining accent)
+	 * following a letter or a digit. Removed characters are considered as spaces, {@code removed} may be null.
+	 */
+	private static boolean isWordCharAt(String text, boolean[] removed, int i) {
+		if(removed != null && removed[i]) return false;
+		int c = text.codePointAt(i);
+		if(c == '_' || Character.isLetterOrDigit(c)) return true;
+		return Character.getType(c) == Character.NON_SPACING_MARK && hasBaseCharacter(text, removed, i);
+	}
+
+	/**
+	 * @see #isWordCharAt(String, boolean[], int)
+	 */
+	private static boolean isWordCharBefore(String text, boolean[] removed, int i) {
+		return isWordCharAt(text, removed, i - Character.charCount(text.codePointBefore(i)));
+	}
+
+	/**
+	 * @return true if the non spacing mark at position {@code i} follows, possibly after other marks,
+	 * a letter or a digit
+	 */
+	private static boolean hasBaseCharacter(String text, boolean[] removed, int i) {
+		for(int x = i; x >= 0; x--) {
+			if(removed != null && removed[x]) return false;
+			int c = text.codePointAt(x);
+			if(Character.isLetterOrDigit(c)) return true;
+			if(Character.getType(c) != Character.NON_SPACING_MARK) return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Whitespaces, as matched by the {@code \s} regexp construct
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isLinkChar(char c) {
+		return isLinkEndChar(c) || c == '?' || c == '!' || c == ':' || c == ',' || c == '.' || c == ';';
+	}
+
+	private static boolean isLinkEndChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| "-+&@#/%=~_|".indexOf(c) >= 0;
+	}
+
+	/**
+	 * Accumulate the patterns in a trie and compile it into the automaton
+	 */
+	private class Builder {
+		private List<Map<Character, Integer>> children = new ArrayList<>();
+		private List<Integer> nodeKinds = new ArrayList<>();
+		private List<Integer> nodeDepths = new ArrayList<>();
+
+		public Builder() {
+			newNode(0);
+		}
+
+		private int newNode(int nodeDepth) {
+			children.add(new HashMap<>());
+			nodeKinds.add(0);
+			nodeDepths.add(nodeDepth);
+			return children.size() - 1;
+		}
+
+		public void addAll(List<String> patterns, int kind) {
+			for(String pattern : patterns) {
+				if(!pattern.equals("")) add(pattern, kind);
+			}
+		}
+
+		public void add(String pattern, int kind) {
+			int node = ROOT;
+			for(int i = 0; i < pattern.length(); i++) {
+				Integer next = children.get(node).get(pattern.charAt(i));
+				if(next == null) {
+					next = newNode(i + 1);
+					children.get(node).put(pattern.charAt(i), next);
+				}
+				node = next;
+			}
+			nodeKinds.set(node, nodeKinds.get(node) | kind);
+		}
+
+		/**
+		 * Compile the trie in the arrays of the enclosing automaton and compute the failure function
+		 */
+		public void compile() {
+			int nodes = children.size();
+
+			edgeStart = new int[nodes + 1];
+			edgeChar = new char[nodes - 1];
+			edgeTarget = new int[nodes - 1];
+			kinds = new int[nodes];
+			depth = new int[nodes];
+
+			int edge = 0;
+			for(int node = 0; node < nodes; node++) {
+				edgeStart[node] = edge;
+				Character[] chars = children.get(node).keySet().toArray(new Character[0]);
+				Arrays.sort(chars);
+				for(Character c : chars) {
+					edgeChar[edge] = c;
+					edgeTarget[edge] = children.get(node).get(c);
+					edge++;
+				}
+				kinds[node] = nodeKinds.get(node);
+				depth[node] = nodeDepths.get(node);
+			}
+			edgeStart[nodes] = edge;
+
+			rootAscii = new int[128];
+			Arrays.fill(rootAscii, -1);
+			for(Map.Entry<Character, Integer> entry : children.get(ROOT).entrySet()) {
+				if(entry.getKey() < rootAscii.length) rootAscii[entry.getKey()] = entry.getValue();
+			}
+
+			// breadth first visit to compute the failure function
+			fail = new int[nodes];
+			outputLink = new int[nodes];
+			outputLink[ROOT] = -1;
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for(int e = edgeStart[ROOT]; e < edgeStart[ROOT + 1]; e++) {
+				int child = edgeTarget[e];
+				fail[child] = ROOT;
+				outputLink[child] = -1;
+				queue.add(child);
+			}
+			while(!queue.isEmpty()) {
+				int node = queue.poll();
+				for(int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+					int child = edgeTarget[e];
+					int f = step(fail[node], edgeChar[e]);
+					fail[child] = f;
+					outputLink[child] = kinds[f] != 0 ? f : outputLink[f];
+					queue.add(child);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package twitter_filtering_stefano;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Result of the filtering of a tweet: the ids of the words of the filtered text and the discarded flag.
+ * The filtered text itself is not kept, since its words can be decoded by the {@link TokenDictionary}.
+ * The captured tweet is referenced, not copied, since it is immutable.
+ *
+ * @author stefano
+ *
+ */
+public class FilteredTweet {
+	private final Tweet tweet;
+	private final int[] tokens; // ids of the words in the filtered text, assigned by a TokenDictionary
+	private final boolean discarded;
+
+	/**
+	 * @param tweet the captured tweet
+	 * @param tokens the ids of the words in the filtered text, assigned by a {@link TokenDictionary}
+	 * @param discarded true if the tweet has to be removed from the stream
+	 */
+	public FilteredTweet(Tweet tweet, int[] tokens, boolean discarded) {
+		this.tweet = tweet;
+		this.tokens = tokens;
+		this.discarded = discarded;
+	}
+
+	/**
+	 * @return the captured tweet, with the original text
+	 */
+	public Tweet getTweet() {
+		return tweet;
+	}
+
+	/**
+	 * @return the tweet id
+	 */
+	public long getId() {
+		return tweet.getId();
+	}
+
+	/**
+	 * @return the tweet timestamp
+	 */
+	public Instant getTimestamp() {
+		return tweet.getTimestamp();
+	}
+
+	/**
+	 * @return the ids of the words in the filtered text
+	 */
+	public int[] getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * @return true if the tweet has been flagged as discarded
+	 */
+	public boolean isDiscarded() {
+		return discarded;
+	}
+
+	@Override
+	public String toString() {
+		return tweet.getId() + "\t" + Arrays.toString(tokens) + "\t" + tweet.getTimestamp().toString() + (discarded ? " - discarded" : "");
+	}
+}
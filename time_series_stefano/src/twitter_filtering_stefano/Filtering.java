@@ -14,24 +14,43 @@ import java.util.regex.Pattern;
  * When the tweet text contains any of the words in baseline, the entire tweet is 
  * flagged as discarded. This allow to easily remove the tweet from the stream.  
  * 
+ * The captured tweet is not modified: the filtered text is returned in a new {@link FilteredTweet}.
+ * 
+ * The filters are applied either by a single {@link FilterAutomaton}, scanning the text only once,
+ * or by a sequence of regular expressions, as specified by the engine option in filtering.conf.
+ * The words of the filtered text are then encoded by the {@link TokenDictionary} shared by the pipeline.
+ * 
  * This class implements the {@link Function} interface, so it can be directly used as intermediate operation
  * in a stream.
  * 
  * @author stefano
  *
  */
-public class Filtering implements Function<Tweet, Tweet>{
+public class Filtering implements Function<Tweet, FilteredTweet>{
 
+	// null when the automaton is used
 	private Pattern punteggiatura;
 	private Pattern stopWords;
 	private Pattern baseline;
 	private Pattern badWords;
 	private Pattern keywords;
 	
-	private MessageConsole console;
+	private FilterAutomaton automaton = null; // null when the regexp engine is used
+	
+	private TokenDictionary dictionary;
 	
-	public Filtering(Config config, MessageConsole console) {
+	private Log console;
+	
+	private static final LatencyHistogram LATENCY = Metrics.histogram("filtering.apply");
+	
+	public Filtering(Config config, TokenDictionary dictionary, Log console) {
 		this.console = console;
+		this.dictionary = dictionary;
+		
+		if(!config.getEngine().equals("regex")) {
+			automaton = new FilterAutomaton(config);
+			return; // the regexp patterns are not used
+		}
 		
 		// initialize the regexp patterns to apply the filters.
 		// the words in punteggiatura and keywords configuration options
@@ -80,9 +99,21 @@ public class Filtering implements Function<Tweet, Tweet>{
 	}
 
 	@Override
-	public Tweet apply(Tweet tweet) {
+	public FilteredTweet apply(Tweet tweet) {
+		long start = System.nanoTime();
+		FilteredTweet filtered = filter(tweet);
+		LATENCY.recordSince(start);
+		return filtered;
+	}
+	
+	private FilteredTweet filter(Tweet tweet) {
 		String text = tweet.getText();
 		
+		if(automaton != null) {
+			text = automaton.filter(text);
+			return new FilteredTweet(tweet, dictionary.encodeText(text), false);
+		}
+		
 		// remove any characters in punteggiatura, stopWords, badWords and keywords
 		text = punteggiatura.matcher(text).replaceAll(" ");
 		text = stopWords.matcher(text).replaceAll(" ");
@@ -91,15 +122,15 @@ public class Filtering implements Function<Tweet, Tweet>{
 		
 		text = baseline.matcher(text).replaceAll(" ");
 		
-		// remove any multiple whitespaces and store the filtered text
-		tweet.setText(text.replaceAll("\\s+", " ").trim());
+		// remove any multiple whitespaces
+		text = text.replaceAll("\\s+", " ").trim();
 		
 //		// discard tweet if contains any of the words in baseline
 //		if(!baseline.pattern().equals("") && baseline.matcher(text).find()) {
-//			tweet.setDiscarded();
 //			console.write("Tweet " + tweet.getId() + " discarded");
+//			return new FilteredTweet(tweet, null, true);
 //		}
 		
-		return tweet;
+		return new FilteredTweet(tweet, dictionary.encodeText(text), false);
 	}
 }
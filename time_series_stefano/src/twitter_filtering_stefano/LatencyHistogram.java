@@ -0,0 +1,118 @@
+package twitter_filtering_stefano;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies (nanoseconds), recorded by any thread without locks.
+ *
+ * As in HDR histograms, the values are counted in buckets whose width grows with the value: each power of 2
+ * is divided in {@link #SUB_BUCKETS} buckets, so the percentiles are computed with a relative error below 3%
+ * over the whole range of long values, using a fixed amount of memory.
+ *
+ * @author stefano
+ *
+ */
+public class LatencyHistogram implements Metrics.HistogramMXBean {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private LongAdder count = new LongAdder();
+	private LongAdder sum = new LongAdder();
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a latency
+	 *
+	 * @param nanos the latency, in nanoseconds. Negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		buckets.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Record the time elapsed since {@code startNanos}
+	 *
+	 * @param startNanos the start time, as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	private static int bucket(long value) {
+		if(value < SUB_BUCKETS) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the middle value of the bucket
+	 */
+	private static long value(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) >>> 1);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	@Override
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency (nanoseconds) not exceeded by the given percentage of the recorded latencies
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.sum();
+		if(n == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for(int b = 0; b < BUCKETS; b++) {
+			seen += buckets.get(b);
+			if(seen >= rank) return Math.min(value(b), getMax());
+		}
+		return getMax();
+	}
+
+	@Override
+	public long getP50() {
+		return getPercentile(50);
+	}
+
+	@Override
+	public long getP90() {
+		return getPercentile(90);
+	}
+
+	@Override
+	public long getP99() {
+		return getPercentile(99);
+	}
+
+	@Override
+	public long getP999() {
+		return getPercentile(99.9);
+	}
+}
@@ -1,6 +1,7 @@
 package twitter_filtering_stefano;
 
 import java.awt.Color;
+import java.util.function.Supplier;
 
 /**
  * Simple interface enabling to report messages to the user
@@ -11,4 +12,23 @@ import java.awt.Color;
 public interface Log {
 	void write(String text);
 	void write(String text, Color color);
+	
+	/**
+	 * Report an occurrence of a frequent event (e.g. a tweet analyzed). Implementations may aggregate the
+	 * occurrences in a periodic summary rather than reporting each of them, so {@code last} is only
+	 * invoked when the message is actually reported.
+	 * 
+	 * @param event description of the event
+	 * @param last provides the description of this occurrence
+	 */
+	default void count(String event, Supplier<String> last) {
+		write(event + ": " + last.get());
+	}
+	
+	/**
+	 * @see #count(String, Supplier)
+	 */
+	default void count(String event, Supplier<String> last, Color color) {
+		write(event + ": " + last.get(), color);
+	}
 }
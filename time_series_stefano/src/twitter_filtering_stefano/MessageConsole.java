@@ -3,11 +3,17 @@ import java.awt.Color;
 import java.awt.Toolkit;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
+import javax.swing.Timer;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
@@ -18,11 +24,46 @@ import javax.swing.text.StyledDocument;
  * the {@link Capturing#stop()} message will be called when the console
  * window is closed.
  * 
+ * Messages can be written by any thread without waiting for the window to be updated: they are queued and
+ * shown by the event dispatch thread a few times per second, all the messages received meanwhile at once.
+ * Only the newest {@link #MAX_LINES} lines are kept. The events reported by {@link #count(String, Supplier, Color)}
+ * are not shown one by one, but summarized once per second with their rate.
+ * 
+ * Once the window is closed, the messages are written to the standard output and the counted events are discarded.
+ * 
  * @author stefano
  *
  */
 public class MessageConsole extends WindowAdapter implements Log {
 
+	/**
+	 * interval (milliseconds) between two updates of the window
+	 */
+	private static final int FRAME_INTERVAL = 100;
+	
+	/**
+	 * interval (milliseconds) between two summaries of the counted events
+	 */
+	private static final long SUMMARY_INTERVAL = 1000;
+	
+	/**
+	 * maximum number of lines shown, older lines are removed
+	 */
+	private static final int MAX_LINES = 1000;
+	
+	/**
+	 * A message waiting to be shown
+	 */
+	private static class Message {
+		final String text;
+		final Color color;
+		
+		Message(String text, Color color) {
+			this.text = text;
+			this.color = color;
+		}
+	}
+	
 	// used to try to layout multiple windows nicely on the screen
 	private static int lastY = 0;
 	private static int lastX = 0;
@@ -41,6 +82,11 @@ public class MessageConsole extends WindowAdapter implements Log {
 	private JTextPane output; // component where messages are reported
 	private Color defaultColor; // default color, to be used when the write(String text) method without color specification is invoked 
 	
+	private ConcurrentLinkedQueue<Message> pending = new ConcurrentLinkedQueue<>(); // messages not shown yet
+	private EventCounters counters = new EventCounters(); // summarized by the event dispatch thread
+	private Timer timer; // updates the window on the event dispatch thread
+	private volatile boolean closed = false; // true once the window is closed, nothing is queued anymore
+	
 	public MessageConsole(String title) {
 		defaultColor = Color.yellow;
 		
@@ -68,6 +114,9 @@ public class MessageConsole extends WindowAdapter implements Log {
         }
         
         frame.setVisible(true);
+        
+        timer = new Timer(FRAME_INTERVAL, e -> flush());
+        timer.start();
 	}
 	
 	@Override
@@ -75,32 +124,96 @@ public class MessageConsole extends WindowAdapter implements Log {
 		write(text, defaultColor);
 	}
 	
+	/**
+	 * Queue the message, it will be shown at the next update of the window
+	 */
 	@Override
 	public void write(String text, Color color) {
-		if(output == null){
+		if(output == null || closed){
 			System.out.println(text);
 			return;
 		}
 		
-		SimpleAttributeSet style = new SimpleAttributeSet();
-		StyleConstants.setForeground(style, color);
-		//output.setCharacterAttributes(style, true);
+		pending.add(new Message(text, color));
+	}
+	
+	@Override
+	public void count(String event, Supplier<String> last) {
+		count(event, last, defaultColor);
+	}
+	
+	/**
+	 * Count the event, its occurrences will be summarized at the next summary interval
+	 */
+	@Override
+	public void count(String event, Supplier<String> last, Color color) {
+		if(output == null){
+			System.out.println(event + ": " + last.get());
+			return;
+		}
+		if(closed) return;
 		
-		if(!text.endsWith("\n")) text += "\n";
+		counters.count(event, last, color);
+	}
+	
+	/**
+	 * Show the queued messages and, once per summary interval, the summary of the counted events.
+	 * Invoked by the timer on the event dispatch thread.
+	 */
+	private void flush() {
+		long now = System.currentTimeMillis();
+		if(now - counters.getLastSummary() >= SUMMARY_INTERVAL) {
+			counters.summarize(now, (summary, color) -> pending.add(new Message(summary, color)));
+		}
+		if(pending.isEmpty()) return;
 		
-		//output.replaceSelection(text);
+		ArrayList<Message> messages = new ArrayList<>();
+		Message message;
+		while((message = pending.poll()) != null) messages.add(message);
+		
+		// newest messages on top: insert from the newest one, joining the consecutive messages having the same color.
+		// Messages that would be removed anyway are not inserted at all
 		StyledDocument doc = output.getStyledDocument();
+		int oldest = Math.max(0, messages.size() - MAX_LINES);
+		StringBuilder text = new StringBuilder();
+		int offset = 0;
 		try {
-			doc.insertString(0, text, style);
+			for(int i = messages.size() - 1; i >= oldest; i--) {
+				message = messages.get(i);
+				text.append(message.text);
+				if(!message.text.endsWith("\n")) text.append('\n');
+				
+				if(i == oldest || !messages.get(i - 1).color.equals(message.color)) {
+					doc.insertString(offset, text.toString(), style(message.color));
+					offset += text.length();
+					text.setLength(0);
+				}
+			}
+			
+			// remove the oldest lines
+			Element lines = doc.getDefaultRootElement();
+			if(lines.getElementCount() > MAX_LINES) {
+				int start = lines.getElement(MAX_LINES).getStartOffset();
+				doc.remove(start, doc.getLength() - start);
+			}
 		} catch (BadLocationException e) {
 			// ignore
 			e.printStackTrace();
 		}
 	}
+	
+	private static SimpleAttributeSet style(Color color) {
+		SimpleAttributeSet style = new SimpleAttributeSet();
+		StyleConstants.setForeground(style, color);
+		return style;
+	}
 
 	@Override
 	public void windowClosing(WindowEvent e) {
 		if(capturing != null) capturing.stop();
+		closed = true;
+		timer.stop();
+		pending.clear();
 		frame.dispose();
 	}
 }
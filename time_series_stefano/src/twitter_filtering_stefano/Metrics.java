@@ -0,0 +1,180 @@
+package twitter_filtering_stefano;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the metrics of the pipeline: counters, latency histograms and gauges, identified by name
+ * (e.g. "filtering.apply").
+ *
+ * The metrics are created on first use and shared by all the threads, so the classes recording them should
+ * look them up once and keep a reference. Every metric is also registered in the platform MBean server,
+ * under the {@code twitter_filtering_stefano} domain, to be inspected by any JMX client. The metrics can be
+ * periodically written to a file by a {@link MetricsReporter}.
+ *
+ * @author stefano
+ *
+ */
+public class Metrics {
+
+	private static final String DOMAIN = "twitter_filtering_stefano";
+
+	/**
+	 * JMX view of a counter
+	 */
+	public interface CounterMXBean {
+		long getCount();
+	}
+
+	/**
+	 * JMX view of a latency histogram. Latencies are in nanoseconds
+	 */
+	public interface HistogramMXBean {
+		long getCount();
+		double getMean();
+		long getMax();
+		long getP50();
+		long getP90();
+		long getP99();
+		long getP999();
+	}
+
+	/**
+	 * JMX view of a gauge
+	 */
+	public interface GaugeMXBean {
+		long getValue();
+	}
+
+	/**
+	 * Number of occurrences of an event, incremented by any thread without contention
+	 */
+	public static class Counter implements CounterMXBean {
+		private LongAdder count = new LongAdder();
+
+		public void increment() {
+			count.increment();
+		}
+
+		public void add(long n) {
+			count.add(n);
+		}
+
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+	}
+
+	/**
+	 * Current value of a quantity (e.g. the length of a queue), read when the gauge is reported
+	 */
+	public static class Gauge implements GaugeMXBean {
+		private LongSupplier value;
+
+		private Gauge(LongSupplier value) {
+			this.value = value;
+		}
+
+		@Override
+		public long getValue() {
+			return value.getAsLong();
+		}
+	}
+
+	private static ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+	private static ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private static ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * @param name name of the counter
+	 * @return the counter having the given name, created if needed
+	 */
+	public static Counter counter(String name) {
+		Counter counter = counters.get(name);
+		return counter != null ? counter : counters.computeIfAbsent(name, k -> register("Counter", k, new Counter()));
+	}
+
+	/**
+	 * @param name name of the histogram
+	 * @return the latency histogram having the given name, created if needed
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> register("Histogram", k, new LatencyHistogram()));
+	}
+
+	/**
+	 * Register a gauge, replacing any gauge having the same name
+	 *
+	 * @param name name of the gauge
+	 * @param value provides the current value of the gauge. It is invoked by the reporting threads
+	 */
+	public static void gauge(String name, LongSupplier value) {
+		gauges.compute(name, (k, old) -> {
+			if(old != null) unregister("Gauge", k);
+			return register("Gauge", k, new Gauge(value));
+		});
+	}
+
+	/**
+	 * @return the counters, sorted by name
+	 */
+	public static Map<String, Counter> getCounters() {
+		return new TreeMap<>(counters);
+	}
+
+	/**
+	 * @return the latency histograms, sorted by name
+	 */
+	public static Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<>(histograms);
+	}
+
+	/**
+	 * @return the gauges, sorted by name
+	 */
+	public static Map<String, Gauge> getGauges() {
+		return new TreeMap<>(gauges);
+	}
+
+	/**
+	 * Register the metric in the platform MBean server. Failures are ignored, the metric is still recorded.
+	 */
+	private static <T> T register(String type, String name, T metric) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(type, name);
+			if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(metric, objectName);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		return metric;
+	}
+
+	private static void unregister(String type, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(type, name);
+			if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static ObjectName objectName(String type, String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+	}
+}
@@ -0,0 +1,106 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically append the value of all the {@link Metrics} to a file.
+ *
+ * Each report writes a line for each metric, made of the time, the kind and the name of the metric, and its values
+ * as {@code key=value} pairs separated by tabs: counters report their total and their rate since the previous report,
+ * histograms their count and latency percentiles (microseconds), gauges their current value.
+ *
+ * @author stefano
+ *
+ */
+public class MetricsReporter {
+
+	private Path file;
+	private Log console;
+	private ScheduledExecutorService scheduler;
+	private Map<String, Long> lastCounts = new HashMap<>(); // counter values at the previous report
+	private long lastReport = System.nanoTime();
+
+	/**
+	 * Start reporting the metrics
+	 *
+	 * @param file the file where the reports are appended
+	 * @param interval interval (milliseconds) between two reports
+	 * @param console where to report any error writing the file
+	 */
+	public MetricsReporter(Path file, long interval, Log console) {
+		this.file = file;
+		this.console = console;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "metrics-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		interval = Math.max(interval, 1);
+		scheduler.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write the current value of all the metrics
+	 */
+	private synchronized void report() {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - lastReport, 1) / 1e9;
+		lastReport = now;
+		String time = Instant.now().toString();
+
+		try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			for(Map.Entry<String, Metrics.Counter> entry : Metrics.getCounters().entrySet()) {
+				long count = entry.getValue().getCount();
+				Long last = lastCounts.put(entry.getKey(), count);
+				long rate = Math.round((count - (last == null ? 0 : last)) / seconds);
+				out.write(time + "\tcounter\t" + entry.getKey() + "\tcount=" + count + "\trate=" + rate + "/s");
+				out.newLine();
+			}
+			for(Map.Entry<String, LatencyHistogram> entry : Metrics.getHistograms().entrySet()) {
+				LatencyHistogram histogram = entry.getValue();
+				out.write(time + "\thistogram\t" + entry.getKey() + "\tcount=" + histogram.getCount()
+						+ "\tmean=" + micros(Math.round(histogram.getMean())) + "\tp50=" + micros(histogram.getP50())
+						+ "\tp90=" + micros(histogram.getP90()) + "\tp99=" + micros(histogram.getP99())
+						+ "\tp999=" + micros(histogram.getP999()) + "\tmax=" + micros(histogram.getMax()));
+				out.newLine();
+			}
+			for(Map.Entry<String, Metrics.Gauge> entry : Metrics.getGauges().entrySet()) {
+				out.write(time + "\tgauge\t" + entry.getKey() + "\tvalue=" + entry.getValue().getValue());
+				out.newLine();
+			}
+		} catch (IOException e) {
+			console.write("unable to write the metrics: " + e.getMessage(), Color.red);
+		}
+	}
+
+	private static String micros(long nanos) {
+		return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+	}
+
+	/**
+	 * Stop reporting, after writing a last report
+	 */
+	public void close() {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		report();
+	}
+}
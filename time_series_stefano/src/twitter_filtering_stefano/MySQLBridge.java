@@ -15,11 +15,12 @@ public class MySQLBridge {
 		// Caricamento dei driver per la connessione al DB
 		Class.forName("com.mysql.jdbc.Driver");
 		//inizializzo la connessione al DB
+		//rewriteBatchedStatements invia i batch di insert come insert multi-riga
 		if(passwd.equals("NULL"))
-			connect = DriverManager.getConnection("jdbc:mysql://"+server+"/"+db,user,null);
+			connect = DriverManager.getConnection("jdbc:mysql://"+server+"/"+db+"?rewriteBatchedStatements=true",user,null);
 		else
 		connect = DriverManager.getConnection("jdbc:mysql://"+server+"/"+db+"?"
-					+ "user="+user+"&password="+passwd);
+					+ "user="+user+"&password="+passwd+"&rewriteBatchedStatements=true");
 		connect.setAutoCommit(false);
 	}
 	
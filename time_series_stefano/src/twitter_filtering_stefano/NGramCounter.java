@@ -0,0 +1,233 @@
+package twitter_filtering_stefano;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import wordcloud.WordFrequency;
+
+/**
+ * Count the frequency of the n-grams (sequences of consecutive words) in a set of texts, for each length
+ * from 2 up to the configured cardinality.
+ *
+ * The texts are processed as arrays of tokens (word ids assigned by a {@link TokenDictionary}). For each length,
+ * the n-grams of a text are identified by a rolling hash computed over the tokens, so no string is built
+ * while counting. The tokens of an n-gram are copied only the first time it is found: they are used to
+ * tell apart n-grams having the same hash and to decode the words of the most frequent ones.
+ *
+ * Counters built on different parts of the texts (e.g. by different threads) can be combined
+ * by {@link #merge(NGramCounter)}. A counter is not thread safe.
+ *
+ * @author stefano
+ *
+ */
+public class NGramCounter {
+
+	private static final int INITIAL_CAPACITY = 64; // has to be a power of 2
+	private static final float LOAD_FACTOR = 0.5f;
+	private static final long BASE = 0x9E3779B97F4A7C15L; // rolling hash multiplier, computed modulo 2^64
+
+	private TokenDictionary dictionary;
+	private int cardinality;
+	private long[] powers; // powers[n] = BASE^n
+
+	private int[][] nGrams; // tokens of each n-gram, null for empty slots
+	private long[] hashes;
+	private int[] counts;
+	private int size = 0;
+
+	/**
+	 * @param dictionary the dictionary assigning the tokens
+	 * @param cardinality the maximum length of the counted n-grams. If less than 2, nothing is counted
+	 */
+	public NGramCounter(TokenDictionary dictionary, int cardinality) {
+		this.dictionary = dictionary;
+		this.cardinality = cardinality;
+
+		powers = new long[Math.max(cardinality, 1) + 1];
+		powers[0] = 1;
+		for(int i = 1; i < powers.length; i++) {
+			powers[i] = powers[i - 1] * BASE;
+		}
+
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Count the n-grams of a text
+	 *
+	 * @param text the tokens of the text
+	 */
+	public void addTokens(int[] text) {
+		addTokens(text, 0, text.length);
+	}
+
+	/**
+	 * Count the n-grams of a text stored in a portion of an array
+	 *
+	 * @param tokens the array containing the tokens of the text
+	 * @param from index of the first token of the text (inclusive)
+	 * @param to index of the last token of the text (exclusive)
+	 */
+	public void addTokens(int[] tokens, int from, int to) {
+		for(int n = 2; n <= cardinality && n <= to - from; n++) {
+			// hash of the first n tokens, then roll it by one token at a time
+			long hash = 0;
+			for(int i = from; i < from + n; i++) {
+				hash = hash * BASE + (tokens[i] + 1);
+			}
+			add(hash, tokens, from, n, 1);
+
+			for(int start = from + 1; start + n <= to; start++) {
+				hash = (hash - (tokens[start - 1] + 1) * powers[n - 1]) * BASE + (tokens[start + n - 1] + 1);
+				add(hash, tokens, start, n, 1);
+			}
+		}
+	}
+
+	/**
+	 * Increment the frequency of the n-gram made of the {@code length} tokens of {@code text}
+	 * starting at {@code start}.
+	 */
+	private void add(long hash, int[] text, int start, int length, int count) {
+		int mask = nGrams.length - 1;
+		int slot = spread(hash) & mask;
+		while(nGrams[slot] != null) {
+			if(hashes[slot] == hash && matches(nGrams[slot], text, start, length)) {
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		nGrams[slot] = start == 0 && length == text.length ? text : Arrays.copyOfRange(text, start, start + length);
+		hashes[slot] = hash;
+		counts[slot] = count;
+		size++;
+
+		if(size > nGrams.length * LOAD_FACTOR) {
+			rehash(nGrams.length * 2);
+		}
+	}
+
+	/**
+	 * Add the frequencies counted by {@code other} to this counter. Both counters must use the same dictionary.
+	 *
+	 * @param other the counter to combine with this one
+	 * @return this counter
+	 */
+	public NGramCounter merge(NGramCounter other) {
+		for(int slot = 0; slot < other.nGrams.length; slot++) {
+			int[] nGram = other.nGrams[slot];
+			if(nGram != null) {
+				add(other.hashes[slot], nGram, 0, nGram.length, other.counts[slot]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Select the most frequent n-grams of the given length
+	 *
+	 * @param length the length of the n-grams
+	 * @param number how many n-grams to select
+	 * @return the selected n-grams, with their words separated by spaces, in descending order of frequency.
+	 * N-grams having the same frequency are selected in alphabetical order, so the result does not depend on
+	 * the tokens assigned to the words.
+	 */
+	public List<WordFrequency> top(int length, int number) {
+		// min-heap, the root is the selected n-gram having the lowest frequency
+		PriorityQueue<WordFrequency> heap = new PriorityQueue<>(Math.max(number, 1),
+				Comparator.comparingInt(WordFrequency::getFrequency).thenComparing(WordFrequency::getWord, Comparator.reverseOrder()));
+		for(int slot = 0; slot < nGrams.length && number > 0; slot++) {
+			if(nGrams[slot] == null || nGrams[slot].length != length) continue;
+
+			int count = counts[slot];
+			if(heap.size() < number) {
+				heap.add(new WordFrequency(decode(nGrams[slot]), count));
+			} else if(count >= heap.peek().getFrequency()) {
+				// the n-gram is decoded only if it can be selected
+				String nGram = decode(nGrams[slot]);
+				WordFrequency lowest = heap.peek();
+				if(count > lowest.getFrequency() || nGram.compareTo(lowest.getWord()) < 0) {
+					heap.poll();
+					heap.add(new WordFrequency(nGram, count));
+				}
+			}
+		}
+
+		ArrayList<WordFrequency> ret = new ArrayList<>(heap.size());
+		while(!heap.isEmpty()) {
+			ret.add(heap.poll());
+		}
+		Collections.reverse(ret);
+		return ret;
+	}
+
+	/**
+	 * @return the maximum length of the counted n-grams
+	 */
+	public int getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return the number of different n-grams counted
+	 */
+	public int size() {
+		return size;
+	}
+
+	private String decode(int[] nGram) {
+		StringBuilder ret = new StringBuilder();
+		for(int token : nGram) {
+			if(ret.length() > 0) ret.append(' ');
+			ret.append(dictionary.decode(token));
+		}
+		return ret.toString();
+	}
+
+	private static boolean matches(int[] nGram, int[] text, int start, int length) {
+		if(nGram.length != length) return false;
+		for(int i = 0; i < length; i++) {
+			if(nGram[i] != text[start + i]) return false;
+		}
+		return true;
+	}
+
+	private void allocate(int capacity) {
+		nGrams = new int[capacity][];
+		hashes = new long[capacity];
+		counts = new int[capacity];
+	}
+
+	private void rehash(int capacity) {
+		int[][] oldNGrams = nGrams;
+		long[] oldHashes = hashes;
+		int[] oldCounts = counts;
+
+		allocate(capacity);
+		int mask = capacity - 1;
+		for(int i = 0; i < oldNGrams.length; i++) {
+			if(oldNGrams[i] != null) {
+				int slot = spread(oldHashes[i]) & mask;
+				while(nGrams[slot] != null) slot = (slot + 1) & mask;
+				nGrams[slot] = oldNGrams[i];
+				hashes[slot] = oldHashes[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Fold the 64 bits hash, since the table index only uses the lowest bits
+	 */
+	private static int spread(long hash) {
+		hash ^= hash >>> 32;
+		int h = (int) hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -2,72 +2,194 @@ package twitter_filtering_stefano;
 
 import java.awt.Color;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Spliterator;
 import java.util.Spliterators.AbstractSpliterator;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
 
 /**
  * Implement a {@link twitter_filtering_stefano.StoppableSpliterator} that iterate on the
  * tweets stored in a text file.
  * 
+ * The iterator can be split by byte ranges of the file, aligned to the records boundaries,
+ * so that the file can be replayed by a parallel stream. All the iterators obtained by splitting
+ * share the same file and database writer, which are released when the last of them is exhausted.
+ * 
+ * The replay can be limited to a time range: the {@link TweetIndex} of the file gives the byte range of the
+ * blocks holding tweets in the time range, and the tweets of these blocks outside the time range are skipped.
+ * The index is built, scanning the file once, if it is missing or does not match the file.
+ * 
  * @author stefano
  *
  */
 public class OfflineIterator extends StoppableSpliterator<Tweet> {
-	private Scanner file;
-	private Instant firstWindowStart = null; // time istant of the first tweet in the file
-	private MessageConsole console;
-	private DbWriter dbWriter; // parallel database accessing thread
+	/**
+	 * ranges smaller than this (in bytes) are not split further
+	 */
+	private static final long MIN_SPLIT_SIZE = 64 * 1024;
+	
+	private FileChannel file;
+	private TweetFileReader reader;
+	private Instant firstWindowStart = null; // time istant of the first tweet in the file, or start of the replayed time range
+	private Instant from; // start of the replayed time range, null if not limited
+	private Instant to; // end (exclusive) of the replayed time range, null if not limited
+	private Log console;
+	private DbWriterPool dbWriter; // parallel database accessing threads
 	
-	public OfflineIterator(Config config, MessageConsole console, MessageConsole dbConsole) throws IOException, ClassNotFoundException, SQLException {
-		super(0, AbstractSpliterator.ORDERED | AbstractSpliterator.IMMUTABLE);
+	private OfflineIterator root; // the iterator this one has been split from, holds the stop flag
+	private AtomicInteger active; // number of iterators, obtained by splitting the root one, not exhausted yet
+	private boolean exhausted = false;
+	
+	private static final Metrics.Counter CAPTURED = Metrics.counter("capture.tweets");
+	private static final LatencyHistogram READ_LATENCY = Metrics.histogram("capture.read");
+	private double averageRecordSize; // used to estimate the number of remaining tweets
+	
+	public OfflineIterator(Config config, Log console, Log dbConsole) throws IOException, ClassNotFoundException, SQLException {
+		super(0, AbstractSpliterator.ORDERED | AbstractSpliterator.IMMUTABLE | AbstractSpliterator.NONNULL);
 		
 		this.console = console;
+		root = this;
+		active = new AtomicInteger(1);
 		
 		String filename = config.getFile();
+		Path path = Paths.get(filename);
 		
-		Pattern.compile("(\\d+)\\t+\"(.{0,140})\"\\t+\"(.*)\"", Pattern.DOTALL);
-		file = new Scanner(Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8));
-		firstWindowStart = readTweet().getTimestamp();
-		file = new Scanner(Files.newInputStream(Paths.get(filename))); // "rewind" the scanner
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		
+		TweetIndex index = TweetIndex.load(path);
+		if(index == null) {
+			console.write("indexing " + filename + "...", Color.green);
+			index = TweetIndex.build(path, file);
+			try {
+				index.save(path);
+			} catch (IOException e) {
+				console.write("unable to save the index of " + filename + ": " + e.getMessage(), Color.red);
+			}
+		}
+		if(index.getTweets() == 0) {
+			file.close();
+			throw new IOException("no tweets in " + filename);
+		}
+		
+		// read only the blocks of the file holding tweets in the time range
+		from = config.getReplayFrom();
+		to = config.getReplayTo();
+		firstWindowStart = from != null ? from : index.getFirstTimestamp();
+		long start = index.startOffset(from);
+		long end = index.endOffset(to);
+		reader = new TweetFileReader(file, start, end);
+		averageRecordSize = Math.max(1, (double) (end - start) / Math.max(1, index.countTweets(from, to)));
 		
 		// store tweets in the 'dbTable' table of the database specified in the configuration object.
-		dbWriter = new DbWriter(config,"INSERT INTO `" + config.getDbTable() +"` VALUES (?,?,?)", dbConsole);
+		// The tweets are enqueued by all the threads reading a range of the file
+		dbWriter = new DbWriterPool(config,"INSERT INTO `" + config.getDbTable() +"` VALUES (?,?,?)", false, dbConsole);
 		dbWriter.start();
 	}
+	
+	/**
+	 * Build an iterator on the records starting in the range [{@code start}, {@code end}) of the
+	 * same file of {@code parent}
+	 */
+	private OfflineIterator(OfflineIterator parent, long start, long end) throws IOException {
+		super(0, parent.characteristics());
+		
+		console = parent.console;
+		file = parent.file;
+		reader = new TweetFileReader(file, start, end);
+		firstWindowStart = parent.firstWindowStart;
+		from = parent.from;
+		to = parent.to;
+		dbWriter = parent.dbWriter;
+		root = parent.root;
+		active = parent.active;
+		averageRecordSize = parent.averageRecordSize;
+	}
+	
+	/**
+	 * Split the file range of this iterator approximately in half. The returned iterator covers
+	 * the first half, so that the encounter order of the tweets is preserved.
+	 * 
+	 * @return an iterator on the first half of the range, or null if the range is too small to be split
+	 */
+	@Override
+	public Spliterator<Tweet> trySplit() {
+		if(root.stop || exhausted) return null;
+		
+		long start = reader.getPosition();
+		long end = reader.getEnd();
+		if(end - start < MIN_SPLIT_SIZE) return null;
+		
+		long middle = reader.findRecordStart(start + (end - start) / 2);
+		if(middle <= start || middle >= end) return null;
+		
+		try {
+			OfflineIterator prefix = new OfflineIterator(this, start, middle);
+			active.incrementAndGet();
+			reader.seek(middle);
+			return prefix;
+		} catch (IOException e) {
+			console.write(e.getMessage(), Color.red);
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the number of tweets remaining in the range of this iterator, estimated from the average record size
+	 */
+	@Override
+	public long estimateSize() {
+		if(exhausted) return 0;
+		return (long) Math.ceil(Math.max(0, reader.getEnd() - reader.getPosition()) / averageRecordSize);
+	}
+	
+	/**
+	 * Propagate the stop action to every iterator obtained by splitting this one
+	 */
+	@Override
+	public void stop() {
+		root.stop = true;
+	}
 
 	@Override
 	public boolean tryAdvance(Consumer<? super Tweet> consumer) {
-		if(stop) {
-			dbWriter.finish();
+		if(exhausted) {
+			return false;
+		}
+		
+		if(root.stop) {
+			release();
 			return false;
 		}
 		
 		try {
-			Tweet tweet = readTweet();
+			long start = System.nanoTime();
+			Tweet tweet = readTweetInRange();
+			READ_LATENCY.recordSince(start);
 			
-			// store the tweet in DB 'filtering' table
-			// enqueue a copy of the tweet to avoid that the (asynchronous) query 
-			// will insert modified (i.e. filtered) data in the database
-			dbWriter.enqueue(new Tweet(tweet));
+			CAPTURED.increment();
 			
-			console.write("analyzing tweet id: " + tweet.getId() + " timestamp: " + tweet.getTimestampAsString());
+			// store the tweet in DB 'filtering' table. Tweets are immutable, so the
+			// (asynchronous) query will insert the original data even if the tweet is filtered meanwhile
+			dbWriter.enqueue(tweet);
+			
+			console.count("analyzing tweets", () -> "id: " + tweet.getId() + " timestamp: " + tweet.getTimestampAsString());
 			
 			consumer.accept(tweet);
 			return true;
 		} catch (NoSuchElementException e) {
-			dbWriter.finish();
+			release();
 			return false;
 		} catch(Exception e) {
 			e.printStackTrace();
 			console.write(e.getMessage(), Color.red);
+			release();
 			return false;
 		}
 	}
@@ -76,31 +198,68 @@ public class OfflineIterator extends StoppableSpliterator<Tweet> {
 	 * Read the next tweet from the file
 	 * 
 	 * @return the read tweet
+	 * @throws NoSuchElementException if there are no more tweets in the file
 	 */
 	private Tweet readTweet() {
-		String tweetLine = "";
-		
-		// read the id and tweet text, taking into account that a tweet can contain newlines
-		// and assuming that it will not contain tabs
-		file.useDelimiter("\\t+");
-		
-		tweetLine += file.next().trim() + "\t";
-		tweetLine += file.next().trim().toLowerCase() + "\t";
-		
-		// read the timestamp after the tweet, assuming that a tweet line is always 
-		// terminated either with a line feed or a carriage return
-		file.useDelimiter("\\n|\\r");
-		tweetLine += file.next().trim();
+		Tweet tweet = reader.next();
+		if(tweet == null) {
+			throw new NoSuchElementException("no more tweets in file");
+		}
+		return tweet;
+	}
+	
+	/**
+	 * Read the next tweet, skipping the tweets outside the replayed time range
+	 * 
+	 * @return the read tweet
+	 * @throws NoSuchElementException if there are no more tweets in the file
+	 */
+	private Tweet readTweetInRange() {
+		Tweet tweet = readTweet();
+		while(!inRange(tweet)) tweet = readTweet();
+		return tweet;
+	}
+	
+	/**
+	 * @return true if the tweet timestamp is in the replayed time range
+	 */
+	private boolean inRange(Tweet tweet) {
+		Instant timestamp = tweet.getTimestamp();
+		return (from == null || !timestamp.isBefore(from)) && (to == null || timestamp.isBefore(to));
+	}
+	
+	/**
+	 * Flag this iterator as exhausted. When all the iterators sharing the file are exhausted,
+	 * the database writer is signaled and the file is released.
+	 */
+	private void release() {
+		exhausted = true;
+		if(active.decrementAndGet() > 0) return;
 		
-		return new Tweet(tweetLine);
+		dbWriter.finish();
+		try {
+			file.close();
+		} catch (IOException e) {
+			console.write(e.getMessage(), Color.red);
+		}
+	}
+
+	/**
+	 * Wait until the database writer has stored all the tweets read, once the last iterator sharing
+	 * the file is exhausted
+	 */
+	@Override
+	public void awaitTermination() {
+		dbWriter.awaitTermination();
 	}
 
 	/**
-	 * The timestamp of the first tweet stored in the file.
+	 * The timestamp of the first tweet stored in the file, read from the index of the file,
+	 * or the start of the replayed time range if specified by the 'replayFrom' option.
 	 * 
 	 * Note that the file is assumed to store in the first position the oldest tweet. 
 	 * 
-	 * @return the timestamp of the first tweet stored in the file
+	 * @return the start of the first time window
 	 */
 	public Instant getFirstWindowStart() {
 		return firstWindowStart;
@@ -1,10 +1,11 @@
 package twitter_filtering_stefano;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.Spliterators.AbstractSpliterator;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
 
 import twitter4j.FilterQuery;
@@ -26,23 +27,29 @@ import twitter4j.TwitterStreamFactory;
 public class OnlineIterator extends StoppableSpliterator<Tweet> implements StatusListener {
 
 	private Config config;
-	private LinkedBlockingQueue<Tweet> buffer;
-	private MessageConsole console;
+	private TweetQueue buffer;
+	private Log console;
 	
 	private TwitterStream twitterStream;
 	private FilterQuery filter; // contains twitter query parameters
 	private Instant stopInstant; // when automatically stop receiving tweets
 	
-	private DbWriter dbWriter; // parallel database accessing thread
+	private DbWriterPool dbWriter; // parallel database accessing threads
+	private ArchiveWriter archive = null; // binary archive where the captured tweets are saved, if any
+	
+	private static final Metrics.Counter CAPTURED = Metrics.counter("capture.tweets");
 	
 	private boolean started = false; // used to start capturing online tweets when the first request is received by the streaming api 
 	
-	protected OnlineIterator(Config config, Instant startInstant, MessageConsole console, MessageConsole dbConsole) throws ClassNotFoundException, SQLException {
+	protected OnlineIterator(Config config, Instant startInstant, Log console, Log dbConsole) throws IOException, ClassNotFoundException, SQLException {
 		super(0, AbstractSpliterator.ORDERED | AbstractSpliterator.IMMUTABLE);
 		
 		this.config = config;
 		this.console = console;
-		buffer = new LinkedBlockingQueue<>();
+		// bounded buffer, handling the bursts of tweets according to the 'captureQueuePolicy' option.
+		// Tweets are added only by the twitter4j listener thread and removed only by the (sequential) stream
+		buffer = TweetQueue.create(config.getCaptureQueueSize(), config.getCaptureQueuePolicy(), true);
+		Metrics.gauge("capture.queue", buffer::size);
 		
 		stopInstant = startInstant.plusMillis(config.getDuration());
 		
@@ -54,8 +61,14 @@ public class OnlineIterator extends StoppableSpliterator<Tweet> implements Statu
 		filter = new FilterQuery(0, new long[0], keywords, new double[0][0], languages);
 		
 		// store tweets in the 'dbTable' table of the database specified in the configuration object.
-		dbWriter = new DbWriter(config, "INSERT INTO `" + config.getDbTable() +"` VALUES (?,?,?)", dbConsole);
+		// The tweets are enqueued only by the (sequential) stream thread
+		dbWriter = new DbWriterPool(config, "INSERT INTO `" + config.getDbTable() +"` VALUES (?,?,?)", true, dbConsole);
 		dbWriter.start();
+		
+		// save the captured tweets for a later replay, if requested by the 'archiveFile' option
+		if(!config.getArchiveFile().isEmpty()) {
+			archive = new ArchiveWriter(Paths.get(config.getArchiveFile()), config.isArchiveCompression());
+		}
 	}
 
 	@Override
@@ -68,17 +81,32 @@ public class OnlineIterator extends StoppableSpliterator<Tweet> implements Statu
 		try {
 			Tweet tweet = buffer.take();
 
-			if(stop && tweet.getId() < 0) {
+			if(tweet == null) { // the buffer has been closed by stop()
+				console.write("capture queue high water mark: " + buffer.getHighWaterMark() + " tweets", Color.green);
+				if(buffer.getDropped() > 0) {
+					console.write(buffer.getDropped() + " tweets dropped because the capture queue was full", Color.red);
+				}
 				dbWriter.finish();
+				closeArchive();
 				return false;
 			}
 			
-			// store the tweet in DB 'filtering' table
-			// enqueue a copy of the tweet to avoid that the (asynchronous) query 
-			// will insert modified (i.e. filtered) data in the database
-			dbWriter.enqueue(new Tweet(tweet));
+			CAPTURED.increment();
+			
+			// store the tweet in DB 'filtering' table. Tweets are immutable, so the
+			// (asynchronous) query will insert the original data even if the tweet is filtered meanwhile
+			dbWriter.enqueue(tweet);
+			
+			if(archive != null) {
+				try {
+					archive.append(tweet);
+				} catch (IOException e) {
+					console.write("error writing the archive, tweets will not be saved: " + e.getMessage(), Color.red);
+					closeArchive();
+				}
+			}
 			
-			console.write("analyzing tweet id: " + tweet.getId() + " timestamp: " + tweet.getTimestampAsString());
+			console.count("analyzing tweets", () -> "id: " + tweet.getId() + " timestamp: " + tweet.getTimestampAsString());
 			
 			consumer.accept(tweet);
 		} catch (InterruptedException e) {
@@ -87,19 +115,40 @@ public class OnlineIterator extends StoppableSpliterator<Tweet> implements Statu
 		return true;
 	}
 	
+	/**
+	 * Write the last tweets to the archive and close it
+	 */
+	private void closeArchive() {
+		if(archive == null) return;
+		try {
+			archive.close();
+		} catch (IOException e) {
+			console.write(e.getMessage(), Color.red);
+		}
+		archive = null;
+	}
+	
 	/**
 	 * Stop the reception of tweets from online stream 
 	 */
 	@Override
 	public void stop() {
 		super.stop();
-		buffer.add(new Tweet(-1L, "", Instant.now())); // 'poison' message, just to wake up the queue 
+		buffer.close(); // wake up the queue once it is empty
 		console.write("stopping online capturing...", Color.green);
 		twitterStream.clearListeners();
 		twitterStream.cleanUp();
 		twitterStream.shutdown();
 	}
 	
+	/**
+	 * Wait until the database writer has stored all the captured tweets, once the capture has been stopped
+	 */
+	@Override
+	public void awaitTermination() {
+		dbWriter.awaitTermination();
+	}
+	
 	@Override
 	public void onStatus(Status status) {
 		// apply configurations
@@ -117,7 +166,11 @@ public class OnlineIterator extends StoppableSpliterator<Tweet> implements Statu
     	}
     	
     	// store thw tweet in the iterator queue 
-		buffer.add(tweet);
+		try {
+			buffer.put(tweet);
+		} catch (InterruptedException e) {
+			console.write(e.getMessage(), Color.red);
+		}
 	}
 
 	@Override
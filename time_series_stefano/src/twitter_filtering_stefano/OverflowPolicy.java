@@ -0,0 +1,26 @@
+package twitter_filtering_stefano;
+
+/**
+ * What a bounded {@link TweetQueue} does with a tweet added when it is full
+ *
+ * @author stefano
+ *
+ */
+public enum OverflowPolicy {
+	/**
+	 * wait until the consumer removes a tweet
+	 */
+	BLOCK,
+	/**
+	 * drop the first tweet of the queue to make room for the new one
+	 */
+	DROP_OLDEST,
+	/**
+	 * drop the new tweet
+	 */
+	DROP_NEWEST,
+	/**
+	 * write the tweet in a file on disk, it will be read back when the queue has some room again
+	 */
+	SPILL
+}
@@ -0,0 +1,205 @@
+package twitter_filtering_stefano;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free {@link TweetQueue} for a single producer thread and a single consumer thread.
+ *
+ * The tweets are stored in a ring buffer preallocated with a fixed capacity: each side only writes its own
+ * index (the producer the tail, the consumer the head), so no lock is needed and no object is allocated
+ * to exchange a tweet. A thread finding the queue empty (or full) spins for a while, then parks until
+ * the other side unparks it.
+ *
+ * Only the {@link OverflowPolicy#BLOCK} and {@link OverflowPolicy#DROP_NEWEST} policies are supported,
+ * since the other ones require the producer to modify the head of the queue.
+ *
+ * @author stefano
+ *
+ */
+public class SpscTweetQueue implements TweetQueue {
+
+	/**
+	 * number of times a thread yields before parking, while waiting for the other side
+	 */
+	private static final int SPINS = 64;
+
+	private final Tweet[] ring;
+	private final int mask;
+	private final OverflowPolicy policy;
+
+	private volatile long head = 0; // sequence number of the next tweet to remove, written by the consumer only
+	private volatile long tail = 0; // sequence number of the next tweet to add, written by the producer only
+	private volatile boolean closed = false;
+
+	// threads parked waiting for the other side, null if not waiting
+	private volatile Thread waitingConsumer = null;
+	private volatile Thread waitingProducer = null;
+
+	// written by the producer only
+	private volatile long dropped = 0;
+	private volatile int highWaterMark = 0;
+
+	/**
+	 * @param capacity minimum number of tweets kept in the queue, rounded up to a power of 2
+	 * @param policy what to do with the tweets added when the queue is full, either BLOCK or DROP_NEWEST
+	 * @throws IllegalArgumentException if the policy is not supported
+	 */
+	public SpscTweetQueue(int capacity, OverflowPolicy policy) {
+		if(policy != OverflowPolicy.BLOCK && policy != OverflowPolicy.DROP_NEWEST) {
+			throw new IllegalArgumentException("overflow policy not supported by a lock-free queue: " + policy);
+		}
+
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		ring = new Tweet[size];
+		mask = size - 1;
+		this.policy = policy;
+	}
+
+	@Override
+	public boolean put(Tweet tweet) throws InterruptedException {
+		if(closed) return false;
+
+		long t = tail;
+		if(t - head == ring.length) {
+			if(policy == OverflowPolicy.DROP_NEWEST) {
+				dropped++;
+				return false;
+			}
+
+			int spins = 0;
+			while(t - head == ring.length) {
+				if(closed) return false;
+				if(Thread.interrupted()) throw new InterruptedException();
+
+				if(spins < SPINS) {
+					spins++;
+					Thread.yield();
+				} else {
+					waitingProducer = Thread.currentThread();
+					if(t - head == ring.length && !closed) LockSupport.park(this);
+					waitingProducer = null;
+				}
+			}
+		}
+
+		ring[(int) t & mask] = tweet;
+		tail = t + 1; // publish the tweet
+
+		int size = (int) (t + 1 - head);
+		if(size > highWaterMark) highWaterMark = size;
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null) LockSupport.unpark(consumer);
+		return true;
+	}
+
+	@Override
+	public Tweet take() throws InterruptedException {
+		return next(false, 0);
+	}
+
+	@Override
+	public Tweet poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return next(true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Remove the first tweet, waiting until it is available
+	 *
+	 * @param timed true if the wait is limited to {@code nanos}
+	 * @return the first tweet, or null if the time elapsed or the queue is closed and empty
+	 */
+	private Tweet next(boolean timed, long nanos) throws InterruptedException {
+		long h = head;
+		long deadline = System.nanoTime() + nanos;
+
+		int spins = 0;
+		while(h == tail) {
+			// the producer closes the queue after publishing its last tweet, so the queue is empty for sure
+			if(closed && h == tail) return null;
+			if(Thread.interrupted()) throw new InterruptedException();
+
+			long remaining = deadline - System.nanoTime();
+			if(timed && remaining <= 0) return null;
+
+			if(spins < SPINS) {
+				spins++;
+				Thread.yield();
+			} else {
+				waitingConsumer = Thread.currentThread();
+				if(h == tail && !closed) {
+					if(timed) {
+						LockSupport.parkNanos(this, remaining);
+					} else {
+						LockSupport.park(this);
+					}
+				}
+				waitingConsumer = null;
+			}
+		}
+
+		return remove(h);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Tweet> collection, int maxElements) {
+		int n = 0;
+		for(long h = head; n < maxElements && h != tail; h++) {
+			collection.add(remove(h));
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Remove the tweet having sequence number {@code h}, which must be the head of a non empty queue
+	 */
+	private Tweet remove(long h) {
+		int slot = (int) h & mask;
+		Tweet tweet = ring[slot];
+		ring[slot] = null;
+		head = h + 1; // free the slot
+
+		Thread producer = waitingProducer;
+		if(producer != null) LockSupport.unpark(producer);
+		return tweet;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null) LockSupport.unpark(consumer);
+		Thread producer = waitingProducer;
+		if(producer != null) LockSupport.unpark(producer);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return head == tail;
+	}
+
+	@Override
+	public int size() {
+		long h = head; // read first, so the size is never negative
+		return (int) (tail - h);
+	}
+
+	@Override
+	public long getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+}
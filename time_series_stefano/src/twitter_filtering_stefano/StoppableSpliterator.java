@@ -13,7 +13,7 @@ import java.util.Spliterators.AbstractSpliterator;
  */
 public abstract class StoppableSpliterator<T> extends AbstractSpliterator<T> {
 	
-	protected boolean stop = false;
+	protected volatile boolean stop = false; // may be set by a thread different from the one consuming the stream
 
 	protected StoppableSpliterator(long est, int additionalCharacteristics) {
 		super(est, additionalCharacteristics);
@@ -26,4 +26,11 @@ public abstract class StoppableSpliterator<T> extends AbstractSpliterator<T> {
 	public void stop() {
 		stop = true;
 	}
+	
+	/**
+	 * Wait until the tweets returned by this iterator have been handled by any background task
+	 * (e.g. stored in the database). This implementation does not wait.
+	 */
+	public void awaitTermination() {
+	}
 }
\ No newline at end of file
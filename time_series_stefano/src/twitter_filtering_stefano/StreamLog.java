@@ -0,0 +1,133 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of the {@link Log} interface writing the messages to a character stream (e.g. a file or
+ * the standard output), for running without a graphical environment.
+ *
+ * Each message is written as a single line made of the time, the level ({@code ERROR} for the messages written
+ * in red, {@code INFO} otherwise), the name of the log, the thread and the text, separated by tabs. Line breaks
+ * in the text are escaped. The stream is buffered and flushed once per second and after every error.
+ * The events reported by {@link #count(String, Supplier, Color)} are summarized once per second with their rate.
+ *
+ * Different logs can share the same stream, the lines are never mixed.
+ *
+ * @author stefano
+ *
+ */
+public class StreamLog implements Log {
+
+	/**
+	 * interval (milliseconds) between two summaries of the counted events
+	 */
+	private static final long SUMMARY_INTERVAL = 1000;
+
+	private String name;
+	private Writer out; // shared, used as lock
+	private EventCounters counters = new EventCounters();
+	private AtomicLong errors = new AtomicLong();
+	private ScheduledExecutorService summarizer;
+
+	/**
+	 * @param name name of the log, written in each line
+	 * @param out where the lines are written. It should be buffered, and it is not closed by {@link #close()}
+	 */
+	public StreamLog(String name, Writer out) {
+		this.name = name;
+		this.out = out;
+
+		summarizer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, name + "-log");
+			thread.setDaemon(true);
+			return thread;
+		});
+		summarizer.scheduleAtFixedRate(this::summarize, SUMMARY_INTERVAL, SUMMARY_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void write(String text) {
+		write(text, null);
+	}
+
+	@Override
+	public void write(String text, Color color) {
+		boolean error = Color.red.equals(color);
+		if(error) errors.incrementAndGet();
+
+		if(text == null) text = "";
+		if(text.endsWith("\n")) text = text.substring(0, text.length() - 1);
+
+		StringBuilder line = new StringBuilder(text.length() + 64);
+		line.append(Instant.now()).append('\t')
+			.append(error ? "ERROR" : "INFO").append('\t')
+			.append(name).append('\t')
+			.append(Thread.currentThread().getName()).append('\t')
+			.append(text.replace("\r", "").replace("\n", "\\n"))
+			.append(System.lineSeparator());
+
+		synchronized(out) {
+			try {
+				out.write(line.toString());
+				if(error) out.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public void count(String event, Supplier<String> last) {
+		count(event, last, null);
+	}
+
+	/**
+	 * Count the event, its occurrences will be summarized at the next summary interval
+	 */
+	@Override
+	public void count(String event, Supplier<String> last, Color color) {
+		counters.count(event, last, color);
+	}
+
+	/**
+	 * Write the summary of the counted events and flush the stream
+	 */
+	private synchronized void summarize() {
+		counters.summarize(System.currentTimeMillis(), this::write);
+		synchronized(out) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of errors written so far
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Write the last summary of the counted events and flush the stream. The stream is not closed.
+	 */
+	public void close() {
+		summarizer.shutdown();
+		try {
+			summarizer.awaitTermination(SUMMARY_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		summarize();
+	}
+}
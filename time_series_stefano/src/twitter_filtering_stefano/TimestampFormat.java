@@ -0,0 +1,242 @@
+package twitter_filtering_stefano;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+/**
+ * Parse and format the tweet timestamps, having the fixed format {@code yyyy-MM-dd HH:mm:ss}
+ * in the default time zone.
+ *
+ * The fields are read directly from the characters (or bytes) of the timestamp, without building any
+ * intermediate object. Consecutive tweets often have the same timestamp, so the last parsed and the last
+ * formatted second are cached: the time zone rules are only looked up when the second changes.
+ *
+ * This class is thread safe.
+ *
+ * @author stefano
+ *
+ */
+public class TimestampFormat {
+
+	/**
+	 * length of a formatted timestamp. Any character following it is ignored while parsing
+	 */
+	public static final int LENGTH = 19;
+
+	private static final long SECONDS_PER_DAY = 86400;
+	private static final long INVALID = Long.MIN_VALUE;
+	private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	/**
+	 * Correspondence between a second in local time, its instant and its formatted text
+	 */
+	private static class CachedSecond {
+		final long localSecond;
+		final long epochSecond;
+		final String text;
+
+		CachedSecond(long localSecond, long epochSecond, String text) {
+			this.localSecond = localSecond;
+			this.epochSecond = epochSecond;
+			this.text = text;
+		}
+	}
+
+	// replaced (never modified) by any thread, so each thread sees a consistent entry
+	private static volatile CachedSecond lastParsed = new CachedSecond(Long.MIN_VALUE, 0, null);
+	private static volatile CachedSecond lastFormatted = new CachedSecond(0, Long.MIN_VALUE, null);
+
+	private TimestampFormat() {
+	}
+
+	/**
+	 * @param timestamp the text of the timestamp
+	 * @return the timestamp in epoch milliseconds
+	 * @throws DateTimeParseException if the text is not a valid timestamp
+	 */
+	public static long parse(CharSequence timestamp) {
+		if(timestamp.length() < LENGTH) throw error(timestamp, timestamp.length());
+		for(int i = 4; i < LENGTH; i += 3) {
+			if(timestamp.charAt(i) != separator(i)) throw error(timestamp, i);
+		}
+
+		long millis = toEpochMillis(number(timestamp, 0, 4), number(timestamp, 5, 2), number(timestamp, 8, 2),
+				number(timestamp, 11, 2), number(timestamp, 14, 2), number(timestamp, 17, 2));
+		if(millis == INVALID) throw error(timestamp, 0);
+		return millis;
+	}
+
+	/**
+	 * Parse the timestamp stored, as ASCII characters, in the bytes of {@code buffer}
+	 * between the indexes {@code start} (inclusive) and {@code end} (exclusive)
+	 *
+	 * @return the timestamp in epoch milliseconds
+	 * @throws DateTimeParseException if the bytes are not a valid timestamp
+	 */
+	public static long parse(ByteBuffer buffer, int start, int end) {
+		if(end - start < LENGTH) throw error(ascii(buffer, start, end), end - start);
+		for(int i = 4; i < LENGTH; i += 3) {
+			if(buffer.get(start + i) != separator(i)) throw error(ascii(buffer, start, end), i);
+		}
+
+		long millis = toEpochMillis(number(buffer, start, 4), number(buffer, start + 5, 2), number(buffer, start + 8, 2),
+				number(buffer, start + 11, 2), number(buffer, start + 14, 2), number(buffer, start + 17, 2));
+		if(millis == INVALID) throw error(ascii(buffer, start, end), 0);
+		return millis;
+	}
+
+	/**
+	 * @param epochMillis the timestamp in epoch milliseconds
+	 * @return the formatted timestamp. Milliseconds are truncated
+	 */
+	public static String format(long epochMillis) {
+		long epochSecond = Math.floorDiv(epochMillis, 1000);
+
+		CachedSecond cached = lastFormatted;
+		if(cached.epochSecond == epochSecond) return cached.text;
+
+		ZoneRules rules = ZoneId.systemDefault().getRules();
+		long localSecond = epochSecond + rules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+
+		long days = Math.floorDiv(localSecond, SECONDS_PER_DAY);
+		int secondOfDay = (int) Math.floorMod(localSecond, SECONDS_PER_DAY);
+		int[] date = civilFromDays(days);
+
+		char[] text = new char[LENGTH];
+		digits(text, 0, date[0], 4);
+		text[4] = '-';
+		digits(text, 5, date[1], 2);
+		text[7] = '-';
+		digits(text, 8, date[2], 2);
+		text[10] = ' ';
+		digits(text, 11, secondOfDay / 3600, 2);
+		text[13] = ':';
+		digits(text, 14, secondOfDay / 60 % 60, 2);
+		text[16] = ':';
+		digits(text, 17, secondOfDay % 60, 2);
+
+		cached = new CachedSecond(localSecond, epochSecond, new String(text));
+		lastFormatted = cached;
+		return cached.text;
+	}
+
+	/**
+	 * Convert the parsed fields to epoch milliseconds
+	 *
+	 * @return the epoch milliseconds, or {@link #INVALID} if any field is not valid
+	 */
+	private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+		if(year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+				|| (month == 2 && day == 29 && !isLeap(year))
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return INVALID;
+		}
+
+		long localSecond = daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+
+		CachedSecond cached = lastParsed;
+		if(cached.localSecond != localSecond) {
+			cached = new CachedSecond(localSecond, localSecond - offset(localSecond), null);
+			lastParsed = cached;
+		}
+		return cached.epochSecond * 1000;
+	}
+
+	/**
+	 * @return the offset (seconds) of the default time zone at the given local time. Local times repeated when
+	 * the clocks are set back are considered in standard time, as done by {@link java.util.GregorianCalendar}
+	 */
+	private static int offset(long localSecond) {
+		ZoneRules rules = ZoneId.systemDefault().getRules();
+		LocalDateTime local = LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC);
+		List<ZoneOffset> offsets = rules.getValidOffsets(local);
+		if(offsets.size() > 1) {
+			return offsets.get(1).getTotalSeconds();
+		}
+		return rules.getOffset(local).getTotalSeconds();
+	}
+
+	/**
+	 * @return the number of days from 1970-01-01 to the given date of the proleptic gregorian calendar
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @return year, month and day of the date following 1970-01-01 by the given number of days
+	 */
+	private static int[] civilFromDays(long days) {
+		days += 719468;
+		long era = Math.floorDiv(days, 146097);
+		long dayOfEra = days - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		return new int[] { year, month, day };
+	}
+
+	private static boolean isLeap(int year) {
+		return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	}
+
+	/**
+	 * @return the value of the {@code length} decimal digits starting at {@code start}, or -1 if they are not all digits
+	 */
+	private static int number(CharSequence text, int start, int length) {
+		int value = 0;
+		for(int i = start; i < start + length; i++) {
+			char c = text.charAt(i);
+			if(c < '0' || c > '9') return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int number(ByteBuffer buffer, int start, int length) {
+		int value = 0;
+		for(int i = start; i < start + length; i++) {
+			byte c = buffer.get(i);
+			if(c < '0' || c > '9') return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static char separator(int i) {
+		return i < 10 ? '-' : (i == 10 ? ' ' : ':');
+	}
+
+	private static void digits(char[] text, int start, int value, int length) {
+		for(int i = start + length - 1; i >= start; i--) {
+			text[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static String ascii(ByteBuffer buffer, int start, int end) {
+		char[] chars = new char[end - start];
+		for(int i = 0; i < chars.length; i++) {
+			chars[i] = (char) buffer.get(start + i);
+		}
+		return new String(chars);
+	}
+
+	private static DateTimeParseException error(CharSequence timestamp, int index) {
+		return new DateTimeParseException("error parsing timestamp: " + timestamp, timestamp, index);
+	}
+}
@@ -0,0 +1,178 @@
+package twitter_filtering_stefano;
+
+import java.util.Arrays;
+
+/**
+ * Count the frequency of the tokens (word ids assigned by a {@link TokenDictionary}) in a set of texts.
+ *
+ * Tokens are stored in an open addressing hash table, with the counts kept in a primitive array and
+ * incremented in place: no object is allocated while counting. Words are decoded from the dictionary
+ * only when needed, e.g. for the words selected to build the cloud.
+ *
+ * Counters built on different parts of the texts (e.g. by different threads) can be combined
+ * by {@link #merge(TokenCounter)}. A counter is not thread safe.
+ *
+ * @author stefano
+ *
+ */
+public class TokenCounter {
+
+	/**
+	 * Action performed on each counted token
+	 */
+	public interface TokenConsumer {
+		void accept(int token, int count);
+	}
+
+	private static final int INITIAL_CAPACITY = 64; // has to be a power of 2
+	private static final float LOAD_FACTOR = 0.5f;
+	private static final int EMPTY = -1; // tokens are never negative
+
+	private TokenDictionary dictionary;
+
+	private int[] tokens;
+	private int[] counts;
+	private int size = 0;
+
+	/**
+	 * @param dictionary the dictionary assigning the counted tokens
+	 */
+	public TokenCounter(TokenDictionary dictionary) {
+		this.dictionary = dictionary;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Count the tokens of a text
+	 *
+	 * @param text the tokens of the text to add to this counter
+	 */
+	public void addTokens(int[] text) {
+		addTokens(text, 0, text.length);
+	}
+	
+	/**
+	 * Count the tokens of a text stored in a portion of an array
+	 * 
+	 * @param tokens the array containing the tokens of the text
+	 * @param from index of the first token of the text (inclusive)
+	 * @param to index of the last token of the text (exclusive)
+	 */
+	public void addTokens(int[] tokens, int from, int to) {
+		for(int i = from; i < to; i++) {
+			add(tokens[i], 1);
+		}
+	}
+
+	/**
+	 * Increment the frequency of {@code token}
+	 *
+	 * @param token the token to count
+	 * @param count the frequency increment
+	 */
+	public void add(int token, int count) {
+		int mask = tokens.length - 1;
+		int slot = spread(token) & mask;
+		while(tokens[slot] != EMPTY) {
+			if(tokens[slot] == token) {
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		tokens[slot] = token;
+		counts[slot] = count;
+		size++;
+
+		if(size > tokens.length * LOAD_FACTOR) {
+			rehash(tokens.length * 2);
+		}
+	}
+
+	/**
+	 * @param token the token to look for
+	 * @return the frequency of the token, 0 if it has not been counted
+	 */
+	public int get(int token) {
+		int mask = tokens.length - 1;
+		for(int slot = spread(token) & mask; tokens[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if(tokens[slot] == token) {
+				return counts[slot];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Add the frequencies counted by {@code other} to this counter. Both counters must use the same dictionary.
+	 *
+	 * @param other the counter to combine with this one
+	 * @return this counter
+	 */
+	public TokenCounter merge(TokenCounter other) {
+		for(int slot = 0; slot < other.tokens.length; slot++) {
+			if(other.tokens[slot] != EMPTY) {
+				add(other.tokens[slot], other.counts[slot]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Perform the given action on each token and its frequency
+	 *
+	 * @param action the action to be performed
+	 */
+	public void forEach(TokenConsumer action) {
+		for(int slot = 0; slot < tokens.length; slot++) {
+			if(tokens[slot] != EMPTY) {
+				action.accept(tokens[slot], counts[slot]);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of different tokens counted
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the dictionary assigning the counted tokens
+	 */
+	public TokenDictionary getDictionary() {
+		return dictionary;
+	}
+
+	private void allocate(int capacity) {
+		tokens = new int[capacity];
+		counts = new int[capacity];
+		Arrays.fill(tokens, EMPTY);
+	}
+
+	private void rehash(int capacity) {
+		int[] oldTokens = tokens;
+		int[] oldCounts = counts;
+
+		allocate(capacity);
+		int mask = capacity - 1;
+		for(int i = 0; i < oldTokens.length; i++) {
+			if(oldTokens[i] != EMPTY) {
+				int slot = spread(oldTokens[i]) & mask;
+				while(tokens[slot] != EMPTY) slot = (slot + 1) & mask;
+				tokens[slot] = oldTokens[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Mix the bits of the token, since the table index only uses the lowest ones
+	 */
+	private static int spread(int token) {
+		int hash = token * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,161 @@
+package twitter_filtering_stefano;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Associate each word to an integer id (token), so that texts can be stored and counted as arrays of
+ * tokens instead of strings. Ids are assigned in increasing order starting from 0, the first time a word
+ * is encoded, and never change: the dictionary is append only and it is shared by the whole pipeline.
+ * 
+ * Encoding and decoding can be performed concurrently by several threads. Looking up a word already
+ * in the dictionary doesn't require any lock, nor any allocation: the words of a text are looked up
+ * directly by their position in the text.
+ * 
+ * @author stefano
+ *
+ */
+public class TokenDictionary {
+
+	private static final float LOAD_FACTOR = 0.5f;
+	
+	// open addressing hash table of the ids: each slot holds the id of a word plus 1, or 0 if empty.
+	// A new table is published on growth, after inserting all the ids
+	private volatile AtomicIntegerArray table = new AtomicIntegerArray(2048);
+	
+	// words by id. A new array is published on growth, after copying the old content
+	private volatile String[] words = new String[1024];
+	private volatile int size = 0;
+	
+	/**
+	 * @param word the word to encode
+	 * @return the id of the word, a new one if the word was not in the dictionary
+	 */
+	public int encode(String word) {
+		return encode(word, 0, word.length());
+	}
+	
+	/**
+	 * Encode the word made of the characters of {@code text} in the range [{@code start}, {@code end}).
+	 * A substring is allocated only if the word is not in the dictionary yet.
+	 * 
+	 * @param text the text containing the word
+	 * @param start index of the first character of the word
+	 * @param end index following the last character of the word
+	 * @return the id of the word, a new one if the word was not in the dictionary
+	 */
+	public int encode(String text, int start, int end) {
+		int hash = hash(text, start, end);
+		int id = find(table, text, start, end, hash);
+		if(id >= 0) return id;
+		
+		synchronized(this) {
+			AtomicIntegerArray current = table;
+			id = find(current, text, start, end, hash);
+			if(id >= 0) return id;
+			
+			id = size;
+			String[] currentWords = words;
+			if(id == currentWords.length) {
+				currentWords = Arrays.copyOf(currentWords, id * 2);
+			}
+			currentWords[id] = text.substring(start, end);
+			words = currentWords;
+			
+			// the id is published after the word, so any thread reading the id will find the word
+			if(id + 1 > current.length() * LOAD_FACTOR) {
+				current = new AtomicIntegerArray(current.length() * 2);
+				for(int i = 0; i < id; i++) {
+					insert(current, hash(currentWords[i], 0, currentWords[i].length()), i);
+				}
+				insert(current, hash, id);
+				table = current;
+			} else {
+				insert(current, hash, id);
+			}
+			size = id + 1;
+			return id;
+		}
+	}
+	
+	/**
+	 * @return the id of the word, or -1 if it is not in {@code table}
+	 */
+	private int find(AtomicIntegerArray table, String text, int start, int end, int hash) {
+		int mask = table.length() - 1;
+		int length = end - start;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int entry = table.get(slot);
+			if(entry == 0) return -1;
+			
+			String word = words[entry - 1];
+			if(word.length() == length && text.regionMatches(start, word, 0, length)) return entry - 1;
+		}
+	}
+	
+	private static void insert(AtomicIntegerArray table, int hash, int id) {
+		int mask = table.length() - 1;
+		int slot = hash & mask;
+		while(table.get(slot) != 0) slot = (slot + 1) & mask;
+		table.set(slot, id + 1);
+	}
+	
+	/**
+	 * @return the hash of the characters of {@code text} in the range [{@code start}, {@code end})
+	 */
+	private static int hash(String text, int start, int end) {
+		int h = 0;
+		for(int i = start; i < end; i++) {
+			h = 31 * h + text.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Encode the words of {@code text}. Words are separated by whitespaces.
+	 * 
+	 * @param text the text to encode
+	 * @return the ids of the words, in the same order they are found in the text
+	 */
+	public int[] encodeText(String text) {
+		int[] tokens = new int[16];
+		int count = 0;
+		
+		int n = text.length();
+		int i = 0;
+		while(i < n) {
+			while(i < n && isSpace(text.charAt(i))) i++;
+			int start = i;
+			while(i < n && !isSpace(text.charAt(i))) i++;
+			if(i > start) {
+				if(count == tokens.length) tokens = Arrays.copyOf(tokens, count * 2);
+				tokens[count++] = encode(text, start, i);
+			}
+		}
+		
+		return Arrays.copyOf(tokens, count);
+	}
+	
+	/**
+	 * @param id the id of a word
+	 * @return the word having the given id
+	 * @throws ArrayIndexOutOfBoundsException if the id has not been assigned
+	 */
+	public String decode(int id) {
+		return words[id];
+	}
+	
+	/**
+	 * @return the number of words in the dictionary
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Whitespaces, as matched by the {@code \s} regexp construct
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
@@ -1,30 +1,18 @@
 package twitter_filtering_stefano;
 
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.time.Instant;
-import java.time.format.DateTimeParseException;
-import java.util.Date;
 
 /**
- * Encapsulates tweet informations
+ * Encapsulates tweet informations, as captured. Tweets are immutable, so the same object can be shared
+ * by the threads storing it in the database and the ones filtering it: the filtered text is held
+ * by a separate {@link FilteredTweet}.
  * @author stefano
  *
  */
 public class Tweet {
-	private long id;
-	private String text;
-	private Instant timestamp;
-	
-	/**
-	 * tweet timestamp format
-	 */
-	private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	
-	/**
-	 * true if the tweet has been flagged as discarded
-	 */
-	private boolean discarded = false;
+	private final long id;
+	private final String text;
+	private final Instant timestamp;
 	
 	/**
 	 * Initialize the tweet. The values are taken from {@code tweetLine},
@@ -37,16 +25,7 @@ public class Tweet {
 		id = Long.parseLong(fields[0]);
 		text = fields[1].trim().replaceAll("^\"|\"$", "");
 		String dateString = fields[2].trim().replaceAll("^\"|\"$", "");
-		timestamp = parseTimestamp(dateString).toInstant();
-	}
-	
-	public static Date parseTimestamp(String timestamp) {
-		ParsePosition pp = new ParsePosition(0);
-		Date date = dateFormat.parse(timestamp, pp);
-		if(date == null) {
-			throw new DateTimeParseException("error parsing timestamp: " + timestamp, timestamp, pp.getErrorIndex());
-		}
-		return date;
+		timestamp = Instant.ofEpochMilli(TimestampFormat.parse(dateString));
 	}
 	
 	/**
@@ -62,17 +41,6 @@ public class Tweet {
 		this.timestamp = timestamp;
 	}
 	
-	/**
-	 * Copy constructor. Builds a new tweet having the same (copied) information of the argument.
-	 * 
-	 * @param tweet the object to clone
-	 */
-	public Tweet(Tweet tweet) {
-		this.id = tweet.getId();
-		this.text = tweet.getText();
-		this.timestamp = tweet.getTimestamp().plusMillis(0); // copy object
-	}
-
 	// TODO perform character encoding conversion?
 	
 	/**
@@ -101,16 +69,6 @@ public class Tweet {
 	public String getText() {
 		return text;
 	}
-	
-	/**
-	 * Set the text of the tweet. This method is used during the filtering phase,
-	 * when some words in the tweet are deleted.
-	 * 
-	 * @param text the new tweet text
-	 */
-	public void setText(String text) {
-		this.text = text;
-	}
 
 	/**
 	 * @return the tweet timestamp
@@ -123,26 +81,12 @@ public class Tweet {
 	 * @return the tweet timestamp as a formatted string
 	 */
 	public String getTimestampAsString() {
-		return dateFormat.format(Date.from(timestamp));
+		return TimestampFormat.format(timestamp.toEpochMilli());
 	}
 
-	/**
-	 * @return true if the tweet has been flagged as discarded
-	 */
-	public boolean isDiscarded() {
-		return discarded;
-	}
-
-	/**
-	 * Flag the tweet as discarded
-	 */
-	public void setDiscarded() {
-		this.discarded = true;
-	}
-	
 	@Override
 	public String toString() {
-		return id + "\t" + text + "\t" + timestamp.toString() + (discarded ? " - discarded" : "");
+		return id + "\t" + text + "\t" + timestamp.toString();
 	}
 
 }
@@ -0,0 +1,151 @@
+package twitter_filtering_stefano;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compact store of a set of filtered tweets (e.g. the tweets of a time window), kept by column rather than
+ * as one object per tweet.
+ *
+ * Ids and timestamps are stored in primitive arrays. The tokens of all the tweets are appended to a shared
+ * arena, and each tweet only records where its tokens end. The texts are not kept: the tokens are all that
+ * is needed to count the words and n-grams, and they can be decoded by the dictionary. Only a handful of
+ * arrays are allocated, whatever the number of tweets.
+ *
+ * Stores built on different parts of the tweets (e.g. by different threads) can be combined by
+ * {@link #merge(TweetColumns)}. A store is not thread safe while tweets are added.
+ *
+ * @author stefano
+ *
+ */
+public class TweetColumns {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private long[] timestamps = new long[INITIAL_CAPACITY]; // epoch milliseconds
+	private int size = 0;
+
+	// the tokens of the tweet i are stored in tokens between tokenEnds[i-1] (or 0 for the first tweet) and tokenEnds[i]
+	private int[] tokens = new int[INITIAL_CAPACITY * 8];
+	private int[] tokenEnds = new int[INITIAL_CAPACITY];
+	private int tokensLength = 0;
+
+	/**
+	 * Build a collector grouping the tweets of a stream by time window, in a store for each window
+	 *
+	 * @param classifier assigns the tweets to their time window
+	 * @return a collector producing a map having the window index as key and the tweets of the window as value,
+	 * sorted by window index
+	 */
+	public static Collector<FilteredTweet, ?, TreeMap<Long, TweetColumns>> groupingByWindow(WindowClassifier classifier) {
+		return Collectors.groupingBy(classifier::windowIndex, TreeMap::new,
+				Collector.of(TweetColumns::new, TweetColumns::add, TweetColumns::merge));
+	}
+
+	/**
+	 * Append a tweet to the store
+	 *
+	 * @param tweet the (filtered) tweet
+	 */
+	public void add(FilteredTweet tweet) {
+		int[] textTokens = tweet.getTokens();
+		ensureCapacity(size + 1, tokensLength + textTokens.length);
+
+		ids[size] = tweet.getId();
+		timestamps[size] = tweet.getTimestamp().toEpochMilli();
+
+		System.arraycopy(textTokens, 0, tokens, tokensLength, textTokens.length);
+		tokensLength += textTokens.length;
+		tokenEnds[size] = tokensLength;
+
+		size++;
+	}
+
+	/**
+	 * Append all the tweets of {@code other} to this store
+	 *
+	 * @param other the store to combine with this one
+	 * @return this store
+	 */
+	public TweetColumns merge(TweetColumns other) {
+		ensureCapacity(size + other.size, tokensLength + other.tokensLength);
+
+		System.arraycopy(other.ids, 0, ids, size, other.size);
+		System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+		System.arraycopy(other.tokens, 0, tokens, tokensLength, other.tokensLength);
+		for(int i = 0; i < other.size; i++) {
+			tokenEnds[size + i] = tokensLength + other.tokenEnds[i];
+		}
+
+		size += other.size;
+		tokensLength += other.tokensLength;
+		return this;
+	}
+
+	private void ensureCapacity(int tweets, int textTokens) {
+		if(tweets > ids.length) {
+			int capacity = Math.max(tweets, ids.length * 2);
+			ids = Arrays.copyOf(ids, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+		}
+		if(textTokens > tokens.length) {
+			tokens = Arrays.copyOf(tokens, Math.max(textTokens, tokens.length * 2));
+		}
+	}
+
+	/**
+	 * Count the words and the n-grams of all the tweets in the store. The tweets are counted in parallel,
+	 * directly from the token arena.
+	 *
+	 * @param dictionary the dictionary assigning the tokens of the tweets
+	 * @param nGramsCardinality the maximum length of the counted n-grams
+	 * @return the frequencies of the words and of the n-grams
+	 */
+	public WindowCounts count(TokenDictionary dictionary, int nGramsCardinality) {
+		return IntStream.range(0, size).parallel()
+				// count the tweets in a partial counter for each thread, then merge the partial counters
+				.collect(() -> new WindowCounts(dictionary, nGramsCardinality),
+						(counts, i) -> counts.add(tokens, tokensStart(i), tokenEnds[i]),
+						WindowCounts::merge);
+	}
+
+	/**
+	 * @return the number of tweets in the store
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i index of the tweet in the store
+	 * @return the tweet id
+	 */
+	public long getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @param i index of the tweet in the store
+	 * @return the tweet timestamp, in epoch milliseconds
+	 */
+	public long getTimestamp(int i) {
+		return timestamps[i];
+	}
+
+	/**
+	 * @param i index of the tweet in the store
+	 * @return the tokens of the tweet
+	 */
+	public int[] getTokens(int i) {
+		return Arrays.copyOfRange(tokens, tokensStart(i), tokenEnds[i]);
+	}
+
+	private int tokensStart(int i) {
+		return i == 0 ? 0 : tokenEnds[i - 1];
+	}
+}
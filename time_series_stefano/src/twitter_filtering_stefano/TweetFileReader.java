@@ -0,0 +1,321 @@
+package twitter_filtering_stefano;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Read the tweets stored in a text file having the same format of test.txt: each record is made of
+ * the tweet id, the text and the timestamp, separated by one or more tabs. Text and timestamp
+ * are enclosed in double quotes, the text can span multiple lines (but can't contain tabs)
+ * and the timestamp is terminated either by a line feed or a carriage return.
+ *
+ * The file is memory mapped and the record structure is scanned directly on the bytes, without
+ * building any intermediate line string. Only the tweet text is decoded (as UTF-8).
+ *
+ * A reader can be bound to a range of the file, so that different portions of the same file can be read
+ * in parallel by different readers. A record belongs to the range where it starts, hence a record crossing
+ * the end of the range is entirely read by the reader of that range.
+ *
+ * @author stefano
+ *
+ */
+public class TweetFileReader {
+
+	/**
+	 * maximum size of a mapped region, a {@link MappedByteBuffer} can't be bigger than this
+	 */
+	private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+	private static final byte TAB = '\t';
+	private static final byte QUOTE = '"';
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private FileChannel channel;
+	private long size; // file size
+
+	private MappedByteBuffer region; // currently mapped portion of the file
+	private long regionStart; // file offset of the first byte of region
+	private int regionLength;
+
+	private long position; // file offset where the next record will be searched
+	private long end; // records starting at or after this offset are not read
+
+	private byte[] scratch = new byte[512]; // reused to decode the tweet text
+
+	/**
+	 * Build a reader for the tweets stored in the file opened by {@code channel}.
+	 * The reader is positioned at the beginning of the file.
+	 *
+	 * @param channel the channel of the file to read
+	 * @throws IOException if there was a problem accessing the file
+	 */
+	public TweetFileReader(FileChannel channel) throws IOException {
+		this(channel, 0, channel.size());
+	}
+	
+	/**
+	 * Build a reader for the tweets starting in the range [{@code start}, {@code end}) of the file
+	 * opened by {@code channel}. The reader is positioned at {@code start}, which should be the
+	 * beginning of a record.
+	 *
+	 * @param channel the channel of the file to read
+	 * @param start file offset of the first record to read
+	 * @param end the reader will not read records starting at or after this file offset
+	 * @throws IOException if there was a problem accessing the file
+	 */
+	public TweetFileReader(FileChannel channel, long start, long end) throws IOException {
+		this.channel = channel;
+		size = channel.size();
+		position = start;
+		this.end = Math.min(end, size);
+		map(Math.min(start, size));
+	}
+
+	/**
+	 * Read the next tweet. The tweet text is converted to lower case.
+	 *
+	 * @return the next tweet, or {@code null} if there are no more tweets in the file
+	 * @throws NumberFormatException if the tweet id is not a valid number
+	 * @throws java.time.format.DateTimeParseException if the tweet timestamp is not valid
+	 * @throws UncheckedIOException if there was a problem accessing the file
+	 */
+	public Tweet next() {
+		long recordStart = skipWhitespaces(position);
+		if(recordStart >= end) {
+			position = Math.max(position, end);
+			return null;
+		}
+
+		Tweet tweet = parseRecord(recordStart);
+		if(tweet == null && regionStart + regionLength < size && regionStart < recordStart) {
+			// the record crosses the end of the mapped region
+			map(recordStart);
+			tweet = parseRecord(recordStart);
+		}
+		if(tweet == null) { // the last record is truncated
+			position = size;
+		}
+		return tweet;
+	}
+
+	/**
+	 * Parse the record starting at {@code recordStart}, which has to be inside the mapped region.
+	 *
+	 * @param recordStart file offset of the record
+	 * @return the parsed tweet, or {@code null} if the record is not entirely contained in the mapped region
+	 */
+	private Tweet parseRecord(long recordStart) {
+		int i = (int) (recordStart - regionStart);
+		int limit = regionLength;
+		boolean lastRegion = regionStart + regionLength == size;
+
+		// id
+		int idStart = i;
+		while(i < limit && region.get(i) != TAB) i++;
+		if(i == limit) return null;
+		int idEnd = i;
+
+		// text
+		while(i < limit && region.get(i) == TAB) i++;
+		int textStart = i;
+		while(i < limit && region.get(i) != TAB) i++;
+		if(i == limit) return null;
+		int textEnd = i;
+
+		// timestamp, the last one in the file may be not terminated
+		while(i < limit && region.get(i) == TAB) i++;
+		int timestampStart = i;
+		while(i < limit && region.get(i) != LF && region.get(i) != CR) i++;
+		if(i == limit && !lastRegion) return null;
+		int timestampEnd = i;
+
+		position = regionStart + i;
+
+		long id = parseId(idStart, idEnd);
+		String text = decodeText(textStart, textEnd).toLowerCase();
+		long timestamp = parseTimestamp(timestampStart, timestampEnd);
+
+		return new Tweet(id, text, Instant.ofEpochMilli(timestamp));
+	}
+
+	/**
+	 * Move the reader to the specified file offset. The offset should be the beginning of a record.
+	 *
+	 * @param offset the file offset where the next record will be searched
+	 */
+	public void seek(long offset) {
+		position = offset;
+	}
+
+	/**
+	 * @return the file offset where the next record will be searched
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the file offset where the range read by this reader ends
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Change the end of the range read by this reader
+	 *
+	 * @param end the reader will not read records starting at or after this file offset
+	 */
+	public void setEnd(long end) {
+		this.end = Math.min(end, size);
+	}
+	
+	/**
+	 * Search the beginning of the first record starting at or after {@code offset}.
+	 * A record starts at the beginning of a line, with the tweet id followed by a tab:
+	 * since the tweet text can't contain tabs, a line of the text can't be mistaken for a record start.
+	 *
+	 * @param offset the file offset where to start the search
+	 * @return the file offset of the record start, or the size of the file if there are no more records
+	 */
+	public long findRecordStart(long offset) {
+		if(offset <= 0) return 0;
+		
+		// move to the beginning of the next line
+		offset--;
+		while(true) {
+			while(offset < size && !isLineTerminator(byteAt(offset))) offset++;
+			while(offset < size && isLineTerminator(byteAt(offset))) offset++;
+			if(offset >= size) return size;
+			
+			long i = offset;
+			while(i < size && isDigit(byteAt(i))) i++;
+			if(i > offset && i < size && byteAt(i) == TAB) return offset;
+			offset = i;
+		}
+	}
+	
+	/**
+	 * @return the size of the file
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Map the portion of the file starting at {@code offset}
+	 *
+	 * @param offset file offset of the first mapped byte
+	 */
+	private void map(long offset) {
+		try {
+			regionStart = offset;
+			regionLength = (int) Math.min(size - offset, MAX_REGION_SIZE);
+			region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionLength);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read a single byte of the file, mapping a new region if needed
+	 *
+	 * @param offset the file offset of the byte to read
+	 * @return the byte read
+	 */
+	private byte byteAt(long offset) {
+		if(offset < regionStart || offset >= regionStart + regionLength) {
+			map(offset);
+		}
+		return region.get((int) (offset - regionStart));
+	}
+
+	/**
+	 * @return the offset of the first non whitespace byte starting from {@code offset}, or the file size if there is none
+	 */
+	private long skipWhitespaces(long offset) {
+		while(offset < size && isWhitespace(byteAt(offset))) offset++;
+		return offset;
+	}
+
+	private static boolean isLineTerminator(byte b) {
+		return b == LF || b == CR;
+	}
+	
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+	
+	/**
+	 * Whitespace according to {@link String#trim()}
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	/**
+	 * Parse the tweet id stored between the region indexes {@code start} (inclusive) and {@code end} (exclusive).
+	 * As {@link Long#parseLong(String)}, a {@link NumberFormatException} is thrown if the id is not a valid long.
+	 */
+	private long parseId(int start, int end) {
+		while(end > start && isWhitespace(region.get(end - 1))) end--;
+		if(start == end) {
+			throw new NumberFormatException("empty tweet id at offset " + (regionStart + start));
+		}
+
+		long id = 0;
+		for(int i = start; i < end; i++) {
+			int digit = region.get(i) - '0';
+			if(digit < 0 || digit > 9) {
+				throw new NumberFormatException("invalid tweet id at offset " + (regionStart + start));
+			}
+			if(id > (Long.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException("tweet id out of range at offset " + (regionStart + start));
+			}
+			id = id * 10 + digit;
+		}
+		return id;
+	}
+
+	/**
+	 * Decode the text stored between the region indexes {@code start} (inclusive) and {@code end} (exclusive),
+	 * removing any leading or trailing whitespace and the enclosing double quotes.
+	 */
+	private String decodeText(int start, int end) {
+		// trim
+		while(start < end && isWhitespace(region.get(start))) start++;
+		while(end > start && isWhitespace(region.get(end - 1))) end--;
+
+		// remove quotes
+		if(start < end && region.get(start) == QUOTE) start++;
+		if(start < end && region.get(end - 1) == QUOTE) end--;
+
+		int length = end - start;
+		if(scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		region.position(start);
+		region.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse the timestamp stored between the region indexes {@code start} (inclusive) and {@code end} (exclusive),
+	 * directly from the bytes of the file
+	 *
+	 * @return the timestamp in epoch milliseconds
+	 */
+	private long parseTimestamp(int start, int end) {
+		while(start < end && isWhitespace(region.get(start))) start++;
+		while(end > start && isWhitespace(region.get(end - 1))) end--;
+		if(start < end && region.get(start) == QUOTE) start++;
+		if(start < end && region.get(end - 1) == QUOTE) end--;
+
+		return TimestampFormat.parse(region, start, end);
+	}
+}
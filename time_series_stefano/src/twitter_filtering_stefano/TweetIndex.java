@@ -0,0 +1,264 @@
+package twitter_filtering_stefano;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Sparse time index of a file of tweets (either a text file or a binary archive), stored alongside the file
+ * with the {@link #EXTENSION} extension.
+ *
+ * The file is divided in blocks of consecutive tweets, and for each block the index holds its offset in the file,
+ * its number of tweets and the minimum and maximum timestamp of its tweets. This allows to replay only the blocks
+ * containing a given time range, without scanning the file from the beginning. Since the tweets in the file are
+ * only approximately sorted by timestamp, the tweets of the selected blocks still have to be checked against the range.
+ *
+ * The index also holds the timestamp of the first tweet, used as start of the first time window, and the size and
+ * modification time of the indexed file, so that an index not matching the file any more is detected.
+ *
+ * @author stefano
+ *
+ */
+public class TweetIndex {
+
+	/**
+	 * extension added to the name of the indexed file
+	 */
+	public static final String EXTENSION = ".idx";
+
+	private static final int MAGIC = 0x54574931; // "TWI1"
+
+	/**
+	 * size (bytes) of the blocks of a text file
+	 */
+	private static final long TEXT_BLOCK_SIZE = 64 * 1024;
+
+	private long fileSize;
+	private long fileModified; // epoch milliseconds
+	private long firstTimestamp; // epoch milliseconds
+	private long tweets;
+	private int blocks;
+	private long[] offsets;
+	private int[] blockTweets;
+	private long[] minTimestamps;
+	private long[] maxTimestamps;
+
+	private TweetIndex(int capacity) {
+		offsets = new long[capacity];
+		blockTweets = new int[capacity];
+		minTimestamps = new long[capacity];
+		maxTimestamps = new long[capacity];
+	}
+
+	/**
+	 * Collect the index of a file while the tweets are written or read
+	 */
+	public static class Builder {
+		private TweetIndex index = new TweetIndex(16);
+
+		/**
+		 * Add a tweet to the index. Consecutive tweets having the same block offset belong to the same block.
+		 *
+		 * @param blockOffset offset, in the indexed file, of the block holding the tweet
+		 * @param timestamp the tweet timestamp, in epoch milliseconds
+		 */
+		public void add(long blockOffset, long timestamp) {
+			TweetIndex i = index;
+			if(i.tweets == 0) i.firstTimestamp = timestamp;
+
+			if(i.blocks == 0 || i.offsets[i.blocks - 1] != blockOffset) {
+				if(i.blocks == i.offsets.length) {
+					int capacity = i.blocks * 2;
+					i.offsets = Arrays.copyOf(i.offsets, capacity);
+					i.blockTweets = Arrays.copyOf(i.blockTweets, capacity);
+					i.minTimestamps = Arrays.copyOf(i.minTimestamps, capacity);
+					i.maxTimestamps = Arrays.copyOf(i.maxTimestamps, capacity);
+				}
+				i.offsets[i.blocks] = blockOffset;
+				i.minTimestamps[i.blocks] = timestamp;
+				i.maxTimestamps[i.blocks] = timestamp;
+				i.blocks++;
+			}
+
+			int b = i.blocks - 1;
+			i.blockTweets[b]++;
+			i.minTimestamps[b] = Math.min(i.minTimestamps[b], timestamp);
+			i.maxTimestamps[b] = Math.max(i.maxTimestamps[b], timestamp);
+			i.tweets++;
+		}
+
+		/**
+		 * @param file the indexed file, already completely written
+		 * @return the index of the file
+		 * @throws IOException if the file can not be accessed
+		 */
+		public TweetIndex build(Path file) throws IOException {
+			index.fileSize = Files.size(file);
+			index.fileModified = Files.getLastModifiedTime(file).toMillis();
+			return index;
+		}
+	}
+
+	/**
+	 * Load the index of a file, if it exists and matches the file
+	 *
+	 * @param file the indexed file
+	 * @return the index, or null if there is no index or it does not match the file
+	 * @throws IOException if the index can not be read
+	 */
+	public static TweetIndex load(Path file) throws IOException {
+		Path path = indexPath(file);
+		if(!Files.exists(path)) return null;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if(in.readInt() != MAGIC) return null;
+			long fileSize = in.readLong();
+			long fileModified = in.readLong();
+			if(fileSize != Files.size(file) || fileModified != Files.getLastModifiedTime(file).toMillis()) return null;
+
+			long firstTimestamp = in.readLong();
+			long tweets = in.readLong();
+			int blocks = in.readInt();
+
+			TweetIndex index = new TweetIndex(blocks);
+			index.fileSize = fileSize;
+			index.fileModified = fileModified;
+			index.firstTimestamp = firstTimestamp;
+			index.tweets = tweets;
+			index.blocks = blocks;
+			for(int b = 0; b < blocks; b++) {
+				index.offsets[b] = in.readLong();
+				index.blockTweets[b] = in.readInt();
+				index.minTimestamps[b] = in.readLong();
+				index.maxTimestamps[b] = in.readLong();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Build the index of a text file, scanning all its tweets
+	 *
+	 * @param file the text file
+	 * @param channel the channel of the opened file
+	 * @return the index of the file
+	 * @throws IOException if the file can not be accessed
+	 */
+	public static TweetIndex build(Path file, FileChannel channel) throws IOException {
+		Builder builder = new Builder();
+		TweetFileReader reader = new TweetFileReader(channel);
+
+		long blockOffset = 0;
+		long recordStart = 0;
+		Tweet tweet;
+		while((tweet = reader.next()) != null) {
+			// a new block starts with the first record following the block size
+			if(recordStart - blockOffset >= TEXT_BLOCK_SIZE) blockOffset = recordStart;
+			builder.add(blockOffset, tweet.getTimestamp().toEpochMilli());
+			recordStart = reader.getPosition();
+		}
+		return builder.build(file);
+	}
+
+	/**
+	 * Save the index alongside the indexed file
+	 *
+	 * @param file the indexed file
+	 * @throws IOException if the index can not be written
+	 */
+	public void save(Path file) throws IOException {
+		Path path = indexPath(file);
+		Path temp = Paths.get(path.toString() + ".tmp");
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeLong(fileSize);
+			out.writeLong(fileModified);
+			out.writeLong(firstTimestamp);
+			out.writeLong(tweets);
+			out.writeInt(blocks);
+			for(int b = 0; b < blocks; b++) {
+				out.writeLong(offsets[b]);
+				out.writeInt(blockTweets[b]);
+				out.writeLong(minTimestamps[b]);
+				out.writeLong(maxTimestamps[b]);
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Path indexPath(Path file) {
+		return Paths.get(file.toString() + EXTENSION);
+	}
+
+	/**
+	 * @return the timestamp of the first tweet in the file
+	 */
+	public Instant getFirstTimestamp() {
+		return Instant.ofEpochMilli(firstTimestamp);
+	}
+
+	/**
+	 * @return the number of tweets in the file
+	 */
+	public long getTweets() {
+		return tweets;
+	}
+
+	/**
+	 * @return the size (bytes) of the indexed file
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * @param from the start of the time range, or null if the range has no start
+	 * @return the offset of the first block holding tweets at or after {@code from}, or the file size if there are none
+	 */
+	public long startOffset(Instant from) {
+		if(from == null) return 0;
+		long millis = from.toEpochMilli();
+		for(int b = 0; b < blocks; b++) {
+			if(maxTimestamps[b] >= millis) return offsets[b];
+		}
+		return fileSize;
+	}
+
+	/**
+	 * @param to the end (exclusive) of the time range, or null if the range has no end
+	 * @return the offset following the last block holding tweets before {@code to}
+	 */
+	public long endOffset(Instant to) {
+		if(to == null) return fileSize;
+		long millis = to.toEpochMilli();
+		for(int b = blocks - 1; b >= 0; b--) {
+			if(minTimestamps[b] < millis) return b + 1 < blocks ? offsets[b + 1] : fileSize;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param from the start of the time range, or null if the range has no start
+	 * @param to the end (exclusive) of the time range, or null if the range has no end
+	 * @return the number of tweets in the blocks holding tweets in the range
+	 */
+	public long countTweets(Instant from, Instant to) {
+		long start = startOffset(from);
+		long end = endOffset(to);
+		long count = 0;
+		for(int b = 0; b < blocks; b++) {
+			if(offsets[b] >= start && offsets[b] < end) count += blockTweets[b];
+		}
+		return count;
+	}
+}
@@ -0,0 +1,88 @@
+package twitter_filtering_stefano;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue handing the tweets from a producer thread to a consumer thread.
+ *
+ * A queue can be closed by the producer to signal the end of the tweets: once a closed queue is empty,
+ * the consumer methods return null instead of waiting.
+ *
+ * @author stefano
+ *
+ */
+public interface TweetQueue {
+
+	/**
+	 * Build a queue having the given capacity and overflow policy. The lock-free {@link SpscTweetQueue} is used
+	 * when there is a single producer and the policy is supported, {@link BoundedTweetQueue} otherwise.
+	 *
+	 * @param capacity maximum number of tweets kept in memory
+	 * @param policy what to do with the tweets added when the queue is full
+	 * @param singleProducer true if the tweets are added by a single thread (and removed by a single thread)
+	 * @return the queue
+	 */
+	static TweetQueue create(int capacity, OverflowPolicy policy, boolean singleProducer) {
+		if(singleProducer && (policy == OverflowPolicy.BLOCK || policy == OverflowPolicy.DROP_NEWEST)) {
+			return new SpscTweetQueue(capacity, policy);
+		}
+		return new BoundedTweetQueue(capacity, policy);
+	}
+
+	/**
+	 * Add a tweet to the queue. If the queue is full the tweet is handled according to the queue policy,
+	 * e.g. waiting for some space or dropping a tweet.
+	 *
+	 * @param tweet the tweet to add
+	 * @return false if the tweet has been dropped or the queue is closed
+	 */
+	boolean put(Tweet tweet) throws InterruptedException;
+
+	/**
+	 * Remove the first tweet of the queue, waiting until a tweet is available
+	 *
+	 * @return the first tweet, or null if the queue is closed and empty
+	 */
+	Tweet take() throws InterruptedException;
+
+	/**
+	 * Remove the first tweet of the queue, waiting up to the given time until a tweet is available
+	 *
+	 * @return the first tweet, or null if the time elapsed or the queue is closed and empty
+	 */
+	Tweet poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Remove the available tweets, without waiting, and add them to {@code collection}
+	 *
+	 * @param collection where to add the removed tweets
+	 * @param maxElements maximum number of tweets to remove
+	 * @return the number of tweets removed
+	 */
+	int drainTo(Collection<? super Tweet> collection, int maxElements);
+
+	/**
+	 * Signal the end of the tweets. Tweets added after closing the queue are ignored.
+	 */
+	void close();
+
+	boolean isClosed();
+
+	boolean isEmpty();
+
+	/**
+	 * @return number of tweets currently stored in the queue
+	 */
+	int size();
+
+	/**
+	 * @return number of tweets dropped because the queue was full
+	 */
+	long getDropped();
+
+	/**
+	 * @return maximum number of tweets stored in the queue at the same time
+	 */
+	int getHighWaterMark();
+}
@@ -0,0 +1,118 @@
+package twitter_filtering_stefano;
+
+import java.awt.Color;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Incrementally count the word and n-gram frequencies of each time window while the tweets are received, 
+ * without keeping the tweets in memory. 
+ * 
+ * A window is closed once its end instant plus the configured lateness has passed, i.e. when a tweet
+ * following that instant is received or when {@link #advance(long)} is called with a later time.
+ * The frequencies of a closed window are immediately handed to the listener, so that the
+ * window clouds can be generated while the capture continues. Tweets belonging to a window
+ * already closed are ignored.
+ * 
+ * This class implements the {@link Consumer} interface, so it can be directly used as terminal operation
+ * of a stream. Tweets should be consumed in encounter order ({@link java.util.stream.Stream#forEachOrdered(Consumer)}),
+ * otherwise windows may be closed too early.
+ * 
+ * @author stefano
+ *
+ */
+public class WindowAggregator implements Consumer<FilteredTweet> {
+	
+	private WindowClassifier classifier;
+	private TokenDictionary dictionary;
+	private int nGramsCardinality;
+	private long lateness; // milliseconds
+	private Log console;
+	
+	/**
+	 * receives the index and the frequencies of each closed window
+	 */
+	private BiConsumer<Long, WindowCounts> listener;
+	
+	private TreeMap<Long, WindowCounts> openWindows = new TreeMap<>(); // frequencies of the windows still open, by window index
+	private long lastClosed = -1; // index of the last closed window
+	private long watermark = Long.MIN_VALUE; // latest tweet timestamp received, in epoch milliseconds
+	private long late = 0; // number of ignored tweets
+	
+	private static final LatencyHistogram LATENCY = Metrics.histogram("windows.add");
+	
+	/**
+	 * @param classifier assigns the tweets to their time window
+	 * @param dictionary the dictionary assigning the tokens of the tweets
+	 * @param nGramsCardinality the maximum length of the counted n-grams. If less than 2, n-grams are not counted
+	 * @param lateness how long to wait, after the end of a window, before closing it (milliseconds)
+	 * @param console where to report any message
+	 * @param listener receives the index and the frequencies of each closed window
+	 */
+	public WindowAggregator(WindowClassifier classifier, TokenDictionary dictionary, int nGramsCardinality, long lateness, Log console, BiConsumer<Long, WindowCounts> listener) {
+		this.classifier = classifier;
+		this.dictionary = dictionary;
+		this.nGramsCardinality = nGramsCardinality;
+		this.lateness = lateness;
+		this.console = console;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Count the words and the n-grams of the tweet in its time window and close the windows ended before the tweet
+	 * 
+	 * @param tweet the (filtered) tweet
+	 */
+	@Override
+	public synchronized void accept(FilteredTweet tweet) {
+		long index = classifier.windowIndex(tweet);
+		if(index <= lastClosed) {
+			late++;
+			console.count("tweets received after their time window was closed, ignored", () -> "id: " + tweet.getId(), Color.red);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		WindowCounts frequencies = openWindows.get(index);
+		if(frequencies == null) {
+			frequencies = new WindowCounts(dictionary, nGramsCardinality);
+			openWindows.put(index, frequencies);
+		}
+		frequencies.add(tweet);
+		LATENCY.recordSince(start);
+		
+		advance(tweet.getTimestamp().toEpochMilli());
+	}
+	
+	/**
+	 * Close all the windows whose end instant plus lateness precedes {@code time}.
+	 * This can be called periodically to close windows even when no tweets are received.
+	 * 
+	 * @param time the current time, in epoch milliseconds
+	 */
+	public synchronized void advance(long time) {
+		watermark = Math.max(watermark, time);
+		while(!openWindows.isEmpty() && classifier.windowEnd(openWindows.firstKey()).toEpochMilli() + lateness < watermark) {
+			close(openWindows.firstKey());
+		}
+	}
+	
+	/**
+	 * Close all the windows still open. To be called when the stream of tweets ends.
+	 */
+	public synchronized void flush() {
+		while(!openWindows.isEmpty()) {
+			close(openWindows.firstKey());
+		}
+		if(late > 0) {
+			console.write(late + " tweets received after their time window was closed", Color.red);
+		}
+	}
+	
+	private void close(long index) {
+		WindowCounts frequencies = openWindows.remove(index);
+		lastClosed = index;
+		listener.accept(index, frequencies);
+	}
+}
@@ -0,0 +1,65 @@
+package twitter_filtering_stefano;
+
+import java.time.Instant;
+
+/**
+ * Assign the tweets to the time windows. The windows are consecutive time intervals, all having the same
+ * length (the refreshTime option in assessment.conf), the first one starting at the time instant of the
+ * first tweet. Each window is identified by its index, starting from 0 for the first window.
+ * 
+ * The window of a tweet is computed arithmetically from its timestamp, so the cost of the assignment
+ * does not depend on how far the tweet is from the first window.
+ * 
+ * @author stefano
+ *
+ */
+public class WindowClassifier {
+
+	private long firstWindowStart; // epoch milliseconds
+	private long windowLength; // milliseconds
+	
+	/**
+	 * @param firstWindowStart starting instant of the first window
+	 * @param windowLength length of each window, in milliseconds
+	 */
+	public WindowClassifier(Instant firstWindowStart, long windowLength) {
+		this.firstWindowStart = firstWindowStart.toEpochMilli();
+		this.windowLength = windowLength;
+	}
+	
+	/**
+	 * @param tweet the tweet to classify
+	 * @return the index of the window the tweet belongs to
+	 */
+	public long windowIndex(FilteredTweet tweet) {
+		return windowIndex(tweet.getTimestamp().toEpochMilli());
+	}
+	
+	/**
+	 * Compute the window index of the given time instant. Windows include their end instant but not their
+	 * start instant, except for the first window which also includes any instant preceding it.
+	 * 
+	 * @param timestamp the time instant, in epoch milliseconds
+	 * @return the index of the window containing the time instant
+	 */
+	public long windowIndex(long timestamp) {
+		long offset = timestamp - firstWindowStart;
+		return offset <= 0 ? 0 : (offset - 1) / windowLength;
+	}
+	
+	/**
+	 * @param index the window index
+	 * @return the starting instant of the window
+	 */
+	public Instant windowStart(long index) {
+		return Instant.ofEpochMilli(firstWindowStart + index * windowLength);
+	}
+	
+	/**
+	 * @param index the window index
+	 * @return the ending instant of the window
+	 */
+	public Instant windowEnd(long index) {
+		return Instant.ofEpochMilli(firstWindowStart + (index + 1) * windowLength);
+	}
+}
@@ -0,0 +1,73 @@
+package twitter_filtering_stefano;
+
+/**
+ * Frequencies of the words and of the n-grams of the tweets in a time window.
+ *
+ * Partial counts built on different parts of the window (e.g. by different threads) can be combined
+ * by {@link #merge(WindowCounts)}. This class is not thread safe.
+ *
+ * @author stefano
+ *
+ */
+public class WindowCounts {
+
+	private TokenCounter words;
+	private NGramCounter nGrams;
+
+	/**
+	 * @param dictionary the dictionary assigning the tokens of the tweets
+	 * @param nGramsCardinality the maximum length of the counted n-grams. If less than 2, n-grams are not counted
+	 */
+	public WindowCounts(TokenDictionary dictionary, int nGramsCardinality) {
+		words = new TokenCounter(dictionary);
+		nGrams = new NGramCounter(dictionary, nGramsCardinality);
+	}
+
+	/**
+	 * Count the words and the n-grams of a tweet
+	 *
+	 * @param tweet the (filtered) tweet
+	 */
+	public void add(FilteredTweet tweet) {
+		words.addTokens(tweet.getTokens());
+		nGrams.addTokens(tweet.getTokens());
+	}
+
+	/**
+	 * Count the words and the n-grams of a tweet whose tokens are stored in a portion of an array
+	 *
+	 * @param tokens the array containing the tokens of the tweet
+	 * @param from index of the first token of the tweet (inclusive)
+	 * @param to index of the last token of the tweet (exclusive)
+	 */
+	public void add(int[] tokens, int from, int to) {
+		words.addTokens(tokens, from, to);
+		nGrams.addTokens(tokens, from, to);
+	}
+
+	/**
+	 * Add the frequencies counted by {@code other} to this object
+	 *
+	 * @param other the counts to combine with these ones
+	 * @return this object
+	 */
+	public WindowCounts merge(WindowCounts other) {
+		words.merge(other.words);
+		nGrams.merge(other.nGrams);
+		return this;
+	}
+
+	/**
+	 * @return the frequency of each word
+	 */
+	public TokenCounter getWords() {
+		return words;
+	}
+
+	/**
+	 * @return the frequency of each n-gram
+	 */
+	public NGramCounter getNGrams() {
+		return nGrams;
+	}
+}
@@ -0,0 +1,376 @@
+package twitter_filtering_stefano;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the tweets to be stored in the database, kept on disk so that no tweet is lost
+ * when the database is slow or unreachable.
+ *
+ * The log is a sequence of segment files in a directory. The writer appends the tweets to the last segment
+ * and makes them durable with {@link #sync()}, which forces the data to disk once for all the tweets appended
+ * since the previous call. When a segment exceeds the configured size, a new one is started.
+ *
+ * The reader follows the writer: it reads the durable tweets, and once they are stored in the database
+ * {@link #commit()} saves its position in a checkpoint file and deletes the segments read completely.
+ * The tweets not committed when the application stops are read again at the next start.
+ *
+ * Each record holds its length and checksum, so a record partially written because of a crash is detected
+ * and ignored. The writer and the reader can be different threads.
+ *
+ * @author stefano
+ *
+ */
+public class WriteAheadLog {
+
+	private static final String PREFIX = "segment-";
+	private static final String SUFFIX = ".wal";
+	private static final String CHECKPOINT = "checkpoint";
+	private static final int HEADER_SIZE = 8; // length and checksum
+	private static final int FIXED_SIZE = 16; // id and timestamp
+
+	private Path directory;
+	private long segmentSize;
+
+	// writer side
+	private FileChannel out;
+	private long outSegment;
+	private long outPosition = 0;
+	private ByteBuffer outBuffer = ByteBuffer.allocate(64 * 1024);
+	private CRC32 outChecksum = new CRC32();
+
+	// durable end of the log, shared with the reader. Segments before the last one are durable up to their end
+	private long durableSegment;
+	private long durablePosition = 0;
+	private boolean closed = false;
+
+	// reader side
+	private FileChannel in = null;
+	private long readSegment;
+	private long readPosition;
+	private long committedSegment;
+	private long committedPosition;
+	private ByteBuffer inBuffer = ByteBuffer.allocate(64 * 1024);
+	private CRC32 inChecksum = new CRC32();
+
+	/**
+	 * Open the log in {@code directory}, creating it if needed. The reader starts from the last checkpoint,
+	 * while the writer appends to a new segment.
+	 *
+	 * @param directory where the segment files are stored
+	 * @param segmentSize size (bytes) after which a new segment is started
+	 * @throws IOException if the directory can not be accessed
+	 */
+	public WriteAheadLog(Path directory, long segmentSize) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory);
+
+		List<Long> segments = segments();
+		long last = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+
+		// restart reading from the checkpoint, or from the first segment if the checkpointed one has been deleted
+		readSegment = segments.isEmpty() ? last + 1 : segments.get(0);
+		readPosition = 0;
+		Path checkpoint = directory.resolve(CHECKPOINT);
+		if(Files.exists(checkpoint)) {
+			String[] fields = new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim().split(" ");
+			long segment = Long.parseLong(fields[0]);
+			if(segment >= readSegment) {
+				readSegment = segment;
+				readPosition = Long.parseLong(fields[1]);
+			}
+		}
+		committedSegment = readSegment;
+		committedPosition = readPosition;
+
+		// the writer starts after the last segment, or after the checkpointed one if all the segments have been deleted
+		outSegment = Math.max(last, readSegment) + 1;
+		out = openSegment(outSegment);
+		durableSegment = outSegment;
+
+		// skip the segments deleted or read completely, so that no tweet is reported as unread when there is none.
+		// The committed position is kept, so that the next commit deletes them
+		while(readSegment < outSegment && segmentEnd(readSegment) <= readPosition) {
+			readSegment++;
+			readPosition = 0;
+		}
+	}
+
+	/**
+	 * Append a tweet to the log. The tweet is durable only after the next {@link #sync()}.
+	 *
+	 * @param tweet the tweet to append
+	 */
+	public void append(Tweet tweet) throws IOException {
+		byte[] text = tweet.getText().getBytes(StandardCharsets.UTF_8);
+		int length = FIXED_SIZE + text.length;
+
+		if(outBuffer.remaining() < HEADER_SIZE + length) {
+			writeBuffer();
+			if(outBuffer.capacity() < HEADER_SIZE + length) {
+				outBuffer = ByteBuffer.allocate(HEADER_SIZE + length);
+			}
+		}
+
+		int start = outBuffer.position();
+		outBuffer.putInt(length);
+		outBuffer.putInt(0); // checksum, computed below
+		outBuffer.putLong(tweet.getId());
+		outBuffer.putLong(tweet.getTimestamp().toEpochMilli());
+		outBuffer.put(text);
+
+		outChecksum.reset();
+		outChecksum.update(outBuffer.array(), start + HEADER_SIZE, length);
+		outBuffer.putInt(start + 4, (int) outChecksum.getValue());
+	}
+
+	/**
+	 * Make all the appended tweets durable, forcing them to disk, and start a new segment if the current one is full
+	 */
+	public void sync() throws IOException {
+		writeBuffer();
+		out.force(false);
+
+		synchronized(this) {
+			durablePosition = outPosition;
+			notifyAll();
+		}
+
+		if(outPosition >= segmentSize) {
+			out.close();
+			outSegment++;
+			outPosition = 0;
+			out = openSegment(outSegment);
+
+			synchronized(this) {
+				durableSegment = outSegment;
+				durablePosition = 0;
+			}
+		}
+	}
+
+	/**
+	 * Make all the appended tweets durable and close the writer side of the log.
+	 * The reader can still read the remaining tweets.
+	 */
+	public void close() throws IOException {
+		try {
+			sync();
+			out.close();
+		} finally {
+			synchronized(this) {
+				closed = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		outBuffer.flip();
+		while(outBuffer.hasRemaining()) {
+			outPosition += out.write(outBuffer);
+		}
+		outBuffer.clear();
+	}
+
+	/**
+	 * Wait until there are durable tweets not read yet
+	 *
+	 * @param timeout maximum waiting time (milliseconds)
+	 * @return true if there are tweets to read
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		if(!hasUnread() && !closed) {
+			wait(timeout);
+		}
+		return hasUnread();
+	}
+
+	/**
+	 * @return true if the writer side is closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return true if the writer side is closed and all the tweets have been read
+	 */
+	public synchronized boolean isDrained() {
+		return closed && !hasUnread();
+	}
+
+	/**
+	 * @return the directory where the segment files are stored
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	private boolean hasUnread() {
+		return readSegment < durableSegment || readPosition < durablePosition;
+	}
+
+	/**
+	 * Read the durable tweets following the reader position
+	 *
+	 * @param tweets where to add the read tweets
+	 * @param max maximum number of tweets to read
+	 * @return the number of tweets read
+	 */
+	public int read(List<Tweet> tweets, int max) throws IOException {
+		int n = 0;
+		while(n < max) {
+			long segment;
+			long end;
+			synchronized(this) {
+				segment = durableSegment;
+				end = readSegment < durableSegment ? Long.MAX_VALUE : durablePosition;
+			}
+			if(readSegment > segment || readPosition >= end) break;
+
+			if(in == null) {
+				Path path = segmentPath(readSegment);
+				if(!Files.exists(path)) {
+					nextSegment();
+					continue;
+				}
+				in = FileChannel.open(path, StandardOpenOption.READ);
+			}
+
+			Tweet tweet = readRecord(Math.min(end, in.size()));
+			if(tweet != null) {
+				tweets.add(tweet);
+				n++;
+			} else if(readSegment < segment) {
+				// end of a previous segment, or a record partially written before a crash
+				nextSegment();
+			} else {
+				break;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the record at the reader position, or null if there is no complete and valid record before {@code end}
+	 */
+	private Tweet readRecord(long end) throws IOException {
+		if(end - readPosition < HEADER_SIZE + FIXED_SIZE) return null;
+
+		inBuffer.clear().limit(HEADER_SIZE);
+		readFully(inBuffer, readPosition);
+		int length = inBuffer.getInt(0);
+		int checksum = inBuffer.getInt(4);
+		if(length < FIXED_SIZE || end - readPosition - HEADER_SIZE < length) return null;
+
+		if(inBuffer.capacity() < length) {
+			inBuffer = ByteBuffer.allocate(length);
+		}
+		inBuffer.clear().limit(length);
+		readFully(inBuffer, readPosition + HEADER_SIZE);
+
+		inChecksum.reset();
+		inChecksum.update(inBuffer.array(), 0, length);
+		if((int) inChecksum.getValue() != checksum) return null;
+
+		long id = inBuffer.getLong(0);
+		Instant timestamp = Instant.ofEpochMilli(inBuffer.getLong(8));
+		String text = new String(inBuffer.array(), FIXED_SIZE, length - FIXED_SIZE, StandardCharsets.UTF_8);
+		readPosition += HEADER_SIZE + length;
+		return new Tweet(id, text, timestamp);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(in.read(buffer, position + buffer.position()) < 0) throw new IOException("unexpected end of log segment");
+		}
+	}
+
+	private void nextSegment() throws IOException {
+		if(in != null) in.close();
+		in = null;
+		readSegment++;
+		readPosition = 0;
+	}
+
+	/**
+	 * Save the reader position: the tweets read so far will not be read again, even after a restart.
+	 * The segments read completely are deleted.
+	 */
+	public void commit() throws IOException {
+		Path temp = directory.resolve(CHECKPOINT + ".tmp");
+		Files.write(temp, (readSegment + " " + readPosition).getBytes(StandardCharsets.US_ASCII));
+		Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		for(long segment = committedSegment; segment < readSegment; segment++) {
+			Files.deleteIfExists(segmentPath(segment));
+		}
+		committedSegment = readSegment;
+		committedPosition = readPosition;
+	}
+
+	/**
+	 * Move the reader back to the last saved position, so that the tweets read after it will be read again
+	 */
+	public void rewind() throws IOException {
+		if(in != null && readSegment != committedSegment) {
+			in.close();
+			in = null;
+		}
+		readSegment = committedSegment;
+		readPosition = committedPosition;
+	}
+
+	/**
+	 * Close the reader side of the log
+	 */
+	public void closeReader() throws IOException {
+		if(in != null) in.close();
+		in = null;
+	}
+
+	private FileChannel openSegment(long segment) throws IOException {
+		return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * @return the size of a segment, 0 if it does not exist
+	 */
+	private long segmentEnd(long segment) throws IOException {
+		Path path = segmentPath(segment);
+		return Files.exists(path) ? Files.size(path) : 0;
+	}
+
+	private Path segmentPath(long segment) {
+		return directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+	}
+
+	/**
+	 * @return the sequence numbers of the existing segments, in ascending order
+	 */
+	private List<Long> segments() throws IOException {
+		ArrayList<Long> ret = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				ret.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+			}
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+}
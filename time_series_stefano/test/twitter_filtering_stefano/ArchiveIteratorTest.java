@@ -0,0 +1,151 @@
+package twitter_filtering_stefano;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static twitter_filtering_stefano.WriteAheadLogTest.assertTweetsEqual;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the binary archive: the tweets replayed by {@link ArchiveIterator}, sequentially or split among threads,
+ * are the ones appended by {@link ArchiveWriter}, and an archive cut by an interrupted capture can still be replayed.
+ *
+ * The configuration files are read from the working directory, the project one. The database is not reachable,
+ * so the replayed tweets are only written to a write-ahead log in a temporary directory.
+ *
+ * @author stefano
+ *
+ */
+public class ArchiveIteratorTest {
+
+	private static final Log SILENT = new Log() {
+		@Override
+		public void write(String text) {
+		}
+
+		@Override
+		public void write(String text, Color color) {
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Config config;
+	private Path archive;
+
+	@Before
+	public void setUp() throws IOException {
+		config = new Config(SILENT);
+		config.setDbAddress("127.0.0.1:1");
+		config.setDbWriters(1);
+		config.setWalDirectory(folder.newFolder("wal").getPath());
+		config.setReplayFrom(null);
+		config.setReplayTo(null);
+
+		archive = folder.getRoot().toPath().resolve("tweets" + ArchiveWriter.EXTENSION);
+		config.setFile(archive.toString());
+	}
+
+	/**
+	 * @return {@code n} tweets spanning several blocks, with ids and timestamps not always increasing
+	 */
+	private static List<Tweet> tweets(int n) {
+		List<Tweet> ret = WriteAheadLogTest.tweets(1000, n);
+		ret.set(10, new Tweet(7, "id and timestamp lower than the previous ones", Instant.ofEpochMilli(1435000000000L)));
+		return ret;
+	}
+
+	private void write(List<Tweet> tweets, boolean compression) throws IOException {
+		ArchiveWriter writer = new ArchiveWriter(archive, compression);
+		for(Tweet tweet : tweets) writer.append(tweet);
+		writer.close();
+	}
+
+	private List<Tweet> replay(boolean parallel) throws IOException, ClassNotFoundException, SQLException {
+		ArchiveIterator iterator = new ArchiveIterator(config, SILENT, SILENT);
+		List<Tweet> ret = StreamSupport.stream(iterator, parallel).collect(Collectors.toList());
+		iterator.awaitTermination();
+		return ret;
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		List<Tweet> tweets = tweets(5000);
+		write(tweets, false);
+		assertTweetsEqual(tweets, replay(false));
+	}
+
+	@Test
+	public void roundTripCompressed() throws Exception {
+		List<Tweet> tweets = tweets(5000);
+		write(tweets, true);
+		assertTweetsEqual(tweets, replay(false));
+	}
+
+	@Test
+	public void parallelReplayKeepsTheOrder() throws Exception {
+		List<Tweet> tweets = tweets(20000);
+		write(tweets, true);
+		assertTweetsEqual(tweets, replay(true));
+	}
+
+	@Test
+	public void replayTimeRange() throws Exception {
+		List<Tweet> tweets = WriteAheadLogTest.tweets(1000, 5000);
+		write(tweets, true);
+		Instant from = tweets.get(1234).getTimestamp();
+		Instant to = tweets.get(3456).getTimestamp();
+		config.setReplayFrom(from);
+		config.setReplayTo(to);
+
+		ArchiveIterator iterator = new ArchiveIterator(config, SILENT, SILENT);
+		assertEquals(from, iterator.getFirstWindowStart());
+		List<Tweet> replayed = StreamSupport.stream(iterator, false).collect(Collectors.toList());
+		iterator.awaitTermination();
+		assertTweetsEqual(tweets.subList(1234, 3456), replayed);
+	}
+
+	@Test
+	public void interruptedCaptureIsReplayedUpToTheLastCompleteBlock() throws Exception {
+		List<Tweet> tweets = tweets(5000);
+		write(tweets, true);
+		List<Tweet> complete = replay(false);
+
+		// the capture stopped while the last block was written, before the index was saved
+		Files.delete(Paths.get(archive + TweetIndex.EXTENSION));
+		assertNull(TweetIndex.load(archive));
+		long size = Files.size(archive);
+		try(FileChannel file = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+			file.truncate(size - 10);
+		}
+
+		List<Tweet> replayed = replay(false);
+		assertTrue(replayed.size() < complete.size());
+		assertTweetsEqual(tweets.subList(0, replayed.size()), replayed);
+	}
+
+	@Test(expected = IOException.class)
+	public void notAnArchive() throws Exception {
+		Files.write(archive, Arrays.asList("1\t\"text\"\t\"2015-06-30 11:51:57\""));
+		new ArchiveIterator(config, SILENT, SILENT);
+	}
+}
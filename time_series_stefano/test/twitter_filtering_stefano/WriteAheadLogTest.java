@@ -0,0 +1,233 @@
+package twitter_filtering_stefano;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link WriteAheadLog}: the tweets read back are the ones appended, in the same order, and after a restart
+ * the reader resumes from the checkpoint, ignoring the records partially written before a crash.
+ *
+ * @author stefano
+ *
+ */
+public class WriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return {@code n} tweets with ids starting from {@code first}, texts of different lengths and non ASCII characters
+	 */
+	static List<Tweet> tweets(long first, int n) {
+		List<Tweet> ret = new ArrayList<>();
+		for(int i = 0; i < n; i++) {
+			StringBuilder text = new StringBuilder("tweet " + (first + i) + " caff\u00e8 \ud83d\ude00");
+			for(int j = 0; j < i % 7; j++) text.append(" parola");
+			ret.add(new Tweet(first + i, text.toString(), Instant.ofEpochMilli(1435000000000L + (first + i) * 1000)));
+		}
+		return ret;
+	}
+
+	static void assertTweetsEqual(List<Tweet> expected, List<Tweet> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			assertEquals(expected.get(i).getText(), actual.get(i).getText());
+			assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+		}
+	}
+
+	private static void appendAll(WriteAheadLog wal, List<Tweet> tweets) throws IOException {
+		for(Tweet tweet : tweets) wal.append(tweet);
+	}
+
+	private static List<Tweet> readAll(WriteAheadLog wal) throws IOException {
+		List<Tweet> ret = new ArrayList<>();
+		while(wal.read(ret, 10) > 0);
+		return ret;
+	}
+
+	private List<Path> segments(Path directory) throws IOException {
+		List<Path> ret = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.wal")) {
+			for(Path file : files) ret.add(file);
+		}
+		ret.sort(null);
+		return ret;
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(folder.getRoot().toPath(), 1 << 20);
+		List<Tweet> tweets = tweets(1, 100);
+		appendAll(wal, tweets);
+		wal.sync();
+
+		assertTweetsEqual(tweets, readAll(wal));
+		wal.close();
+		assertTrue(wal.isDrained());
+		wal.closeReader();
+	}
+
+	@Test
+	public void tweetsNotSyncedAreNotRead() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(folder.getRoot().toPath(), 1 << 20);
+		appendAll(wal, tweets(1, 10));
+		assertEquals(0, readAll(wal).size());
+
+		wal.sync();
+		assertEquals(10, readAll(wal).size());
+		wal.close();
+		wal.closeReader();
+	}
+
+	@Test
+	public void segmentsAreDeletedOnceCommitted() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog wal = new WriteAheadLog(directory, 256);
+		List<Tweet> tweets = tweets(1, 50);
+		for(Tweet tweet : tweets) {
+			wal.append(tweet);
+			wal.sync();
+		}
+		assertTrue(segments(directory).size() > 2);
+
+		assertTweetsEqual(tweets, readAll(wal));
+		wal.commit();
+		assertEquals(1, segments(directory).size()); // the one being written
+		wal.close();
+		wal.closeReader();
+	}
+
+	@Test
+	public void rewindReadsAgainTheTweetsNotCommitted() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(folder.getRoot().toPath(), 1 << 20);
+		List<Tweet> tweets = tweets(1, 20);
+		appendAll(wal, tweets);
+		wal.sync();
+
+		List<Tweet> read = new ArrayList<>();
+		assertEquals(5, wal.read(read, 5));
+		wal.commit();
+		assertEquals(5, wal.read(read, 5));
+		wal.rewind();
+
+		read.subList(5, 10).clear();
+		read.addAll(readAll(wal));
+		assertTweetsEqual(tweets, read);
+		wal.close();
+		wal.closeReader();
+	}
+
+	@Test
+	public void restartFromCheckpoint() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog wal = new WriteAheadLog(directory, 512);
+		List<Tweet> tweets = tweets(1, 40);
+		appendAll(wal, tweets);
+		wal.close();
+
+		List<Tweet> read = new ArrayList<>();
+		assertEquals(15, wal.read(read, 15));
+		wal.commit();
+		assertEquals(10, wal.read(read, 10)); // stored, but not committed before the crash
+		wal.closeReader();
+
+		WriteAheadLog restarted = new WriteAheadLog(directory, 512);
+		restarted.close();
+		assertTweetsEqual(tweets.subList(15, 40), readAll(restarted));
+		assertTrue(restarted.isDrained());
+		restarted.closeReader();
+	}
+
+	@Test
+	public void restartAfterAllCommitted() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		appendAll(wal, tweets(1, 10));
+		wal.close();
+		assertEquals(10, readAll(wal).size());
+		wal.commit();
+		wal.closeReader();
+
+		WriteAheadLog restarted = new WriteAheadLog(directory, 1 << 20);
+		restarted.close();
+		assertTrue(restarted.isDrained());
+		restarted.commit();
+		assertEquals(1, segments(directory).size()); // the one written after the restart
+		restarted.closeReader();
+	}
+
+	@Test
+	public void partialRecordIsIgnoredAfterCrash() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		List<Tweet> tweets = tweets(1, 10);
+		appendAll(wal, tweets);
+		wal.close();
+		wal.closeReader();
+
+		// the last record is cut in the middle, as if the crash happened while it was written
+		Path segment = segments(directory).get(0);
+		try(FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			file.truncate(file.size() - 5);
+		}
+
+		WriteAheadLog restarted = new WriteAheadLog(directory, 1 << 20);
+		List<Tweet> more = tweets(11, 5);
+		appendAll(restarted, more);
+		restarted.close();
+
+		List<Tweet> expected = new ArrayList<>(tweets.subList(0, 9));
+		expected.addAll(more);
+		assertTweetsEqual(expected, readAll(restarted));
+		restarted.closeReader();
+	}
+
+	@Test
+	public void corruptedRecordIsIgnoredAfterCrash() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog wal = new WriteAheadLog(directory, 1 << 20);
+		List<Tweet> tweets = tweets(1, 10);
+		appendAll(wal, tweets);
+		wal.close();
+		wal.closeReader();
+
+		// a byte of the text of the last record is overwritten, so its checksum does not match
+		Path segment = segments(directory).get(0);
+		try(FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			file.write(ByteBuffer.wrap(new byte[] {'#'}), file.size() - 1);
+		}
+
+		WriteAheadLog restarted = new WriteAheadLog(directory, 1 << 20);
+		restarted.close();
+		assertTweetsEqual(tweets.subList(0, 9), readAll(restarted));
+		restarted.closeReader();
+	}
+
+	@Test
+	public void emptyLogIsDrainedWhenClosed() throws IOException, InterruptedException {
+		WriteAheadLog wal = new WriteAheadLog(folder.getRoot().toPath(), 1 << 20);
+		assertFalse(wal.await(1));
+		assertFalse(wal.isDrained());
+		wal.close();
+		assertTrue(wal.isDrained());
+		wal.closeReader();
+	}
+}